@@ -38,7 +38,7 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE_TAGS := optional
 
-LOCAL_SRC_FILES := $(call all-subdir-java-files)
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
 LOCAL_REQUIRED_MODULES := android.software.live_wallpaper.xml
 
 LOCAL_PACKAGE_NAME := LiveWallpapersPicker
@@ -48,16 +48,21 @@ LOCAL_PROGUARD_FLAG_FILES := proguard.flags
 
 LOCAL_STATIC_JAVA_LIBRARIES := \
     android-support-v7-appcompat \
+    android-support-v7-recyclerview \
     android-support-v4 \
     android-support-design
 
 LOCAL_RESOURCE_DIR := \
     $(LOCAL_PATH)/res \
     frameworks/support/v7/appcompat/res \
+    frameworks/support/v7/recyclerview/res \
     frameworks/support/design/res \
 
 LOCAL_AAPT_FLAGS := --auto-add-overlay \
     --extra-packages android.support.design \
-    --extra-packages android.support.v7.appcompat
+    --extra-packages android.support.v7.appcompat \
+    --extra-packages android.support.v7.recyclerview
 
 include $(BUILD_PACKAGE)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
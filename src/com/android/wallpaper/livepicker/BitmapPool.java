@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+
+/**
+ * Process-wide pool of mutable thumbnail bitmaps. All list thumbnails have the same size, so a
+ * bitmap released by one row can be reused for the next thumbnail that is decoded or rendered.
+ */
+class BitmapPool {
+    private static final int MAX_SIZE = 32;
+
+    private static BitmapPool sInstance;
+
+    private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>(MAX_SIZE);
+
+    static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns a transparent mutable bitmap of the given size and config, reusing a pooled one
+     * when possible.
+     */
+    Bitmap acquire(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap;
+        synchronized (this) {
+            bitmap = mBitmaps.pollFirst();
+        }
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, config);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                // Too small for the requested size; let it be garbage collected.
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Returns a bitmap to the pool. The caller must no longer draw or display it.
+     */
+    void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        synchronized (this) {
+            if (mBitmaps.size() < MAX_SIZE && !mBitmaps.contains(bitmap)) {
+                mBitmaps.addLast(bitmap);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import java.io.PrintWriter;
+
+/**
+ * Process-wide timings of the hot paths of loading and showing the catalog, printed by
+ * {@code dumpsys activity}. Each operation keeps a count, a total and a maximum, and recording
+ * never allocates.
+ */
+class CatalogMetrics {
+    /** Querying the services and resolving their labels, once per load. */
+    static final int OP_ENUMERATE = 0;
+    /** Sorting the catalog, once per load. */
+    static final int OP_SORT = 1;
+    /** Parsing the wallpaper info of a single wallpaper. */
+    static final int OP_PARSE = 2;
+    /** Rendering a single placeholder thumbnail. */
+    static final int OP_PLACEHOLDER = 3;
+    private static final int OP_COUNT = 4;
+
+    private static final String[] OP_NAMES = {"enumerate", "sort", "parse", "placeholder"};
+
+    private static CatalogMetrics sInstance;
+
+    private final long[] mCounts = new long[OP_COUNT];
+    private final long[] mTotalNanos = new long[OP_COUNT];
+    private final long[] mMaxNanos = new long[OP_COUNT];
+    private int mLastCatalogSize;
+
+    static synchronized CatalogMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new CatalogMetrics();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records one run of the given operation.
+     *
+     * @param startNanos when it started, in {@link System#nanoTime()}
+     */
+    synchronized void record(int op, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        mCounts[op]++;
+        mTotalNanos[op] += nanos;
+        if (nanos > mMaxNanos[op]) {
+            mMaxNanos[op] = nanos;
+        }
+    }
+
+    /** Records the number of wallpapers found by the latest load. */
+    synchronized void setCatalogSize(int size) {
+        mLastCatalogSize = size;
+    }
+
+    synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("Catalog timings (us), last catalog size ");
+        writer.print(mLastCatalogSize);
+        writer.println(":");
+        for (int op = 0; op < OP_COUNT; op++) {
+            writer.print(prefix); writer.print("  ");
+            writer.print(OP_NAMES[op]);
+            writer.print(": count=");
+            writer.print(mCounts[op]);
+            writer.print(" avg=");
+            writer.print(mCounts[op] > 0 ? mTotalNanos[op] / mCounts[op] / 1000 : 0);
+            writer.print(" max=");
+            writer.print(mMaxNanos[op] / 1000);
+            writer.print(" total=");
+            writer.println(mTotalNanos[op] / 1000);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.UriMatcher;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ResolveInfo;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.service.wallpaper.WallpaperService;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.text.Collator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves the catalog resolved by the picker to other apps, so that they can list the live
+ * wallpapers without parsing their {@code WallpaperInfo} or loading their resources.
+ *
+ * <p>The rows come from the {@link CatalogSnapshot} for the current locale, which is read once
+ * and kept until {@link CatalogRepository} notifies {@link #CONTENT_URI} that it has been
+ * rewritten. Rows whose package has changed since the snapshot was written are left out, and the
+ * catalog is validated again in the background, once per snapshot. Thumbnails are opened
+ * directly from the {@link ThumbnailCache} file, which is created first for wallpapers whose
+ * thumbnail the picker has not shown yet.
+ */
+public class CatalogProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.android.wallpaper.livepicker.catalog";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/wallpapers");
+
+    /** Flattened {@link ComponentName} of the wallpaper service. */
+    public static final String COLUMN_COMPONENT = "component";
+    public static final String COLUMN_LABEL = "label";
+    public static final String COLUMN_AUTHOR = "author";
+    public static final String COLUMN_DESCRIPTION = "description";
+    /** Class name of the settings activity in the wallpaper's package, or null. */
+    public static final String COLUMN_SETTINGS_ACTIVITY = "settings_activity";
+    /** Uri of the thumbnail, a PNG, which is decoded on first open if it is not cached. */
+    public static final String COLUMN_THUMBNAIL_URI = "thumbnail_uri";
+
+    private static final String[] DEFAULT_PROJECTION = {
+            COLUMN_COMPONENT, COLUMN_LABEL, COLUMN_AUTHOR, COLUMN_DESCRIPTION,
+            COLUMN_SETTINGS_ACTIVITY, COLUMN_THUMBNAIL_URI
+    };
+
+    private static final String PATH_WALLPAPERS = "wallpapers";
+    private static final String PATH_THUMBNAILS = "thumbnails";
+
+    private static final int MATCH_WALLPAPERS = 1;
+    /** thumbnails/<package>/<class> */
+    private static final int MATCH_THUMBNAIL = 2;
+
+    private static final UriMatcher sMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    static {
+        sMatcher.addURI(AUTHORITY, PATH_WALLPAPERS, MATCH_WALLPAPERS);
+        sMatcher.addURI(AUTHORITY, PATH_THUMBNAILS + "/*/*", MATCH_THUMBNAIL);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private ThumbnailSource mThumbnailSource;
+
+    private final Object mLock = new Object();
+    /** The snapshot last read, guarded by mLock; null if there was none for the locale. */
+    private CatalogSnapshot mSnapshot;
+    /** The locale the snapshot was read for, or null if it has to be read again. */
+    private Locale mSnapshotLocale;
+    /** Whether the catalog is being validated because the snapshot was found out of date. */
+    private boolean mWarming;
+
+    @Override
+    public boolean onCreate() {
+        Context context = getContext();
+        mThumbnailSource = new ThumbnailSource(context, BitmapPool.getInstance());
+        // Notified by the repository once it has rewritten the snapshot.
+        context.getContentResolver().registerContentObserver(CONTENT_URI, false,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        synchronized (mLock) {
+                            mSnapshot = null;
+                            mSnapshotLocale = null;
+                            mWarming = false;
+                        }
+                    }
+                });
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        if (sMatcher.match(uri) != MATCH_WALLPAPERS) {
+            throw new IllegalArgumentException("Unknown uri " + uri);
+        }
+        if (projection == null) {
+            projection = DEFAULT_PROJECTION;
+        }
+        Context context = getContext();
+        MatrixCursor cursor = new MatrixCursor(projection);
+        cursor.setNotificationUri(context.getContentResolver(), CONTENT_URI);
+
+        CatalogSnapshot snapshot = getSnapshot();
+        boolean stale = snapshot == null;
+        if (snapshot != null) {
+            Map<String, PackageInfo> packageInfos = new HashMap<>();
+            for (CatalogSnapshot.Entry entry : snapshot.getEntries()) {
+                if (!entry.matches(getPackageInfo(entry.component.getPackageName(),
+                        packageInfos))) {
+                    stale = true;
+                    continue;
+                }
+                addRow(cursor, projection, entry);
+            }
+        }
+        if (stale) {
+            warm();
+        }
+        return cursor;
+    }
+
+    /** Returns the snapshot for the current locale, reading it only if it has changed. */
+    private CatalogSnapshot getSnapshot() {
+        synchronized (mLock) {
+            Locale locale = Locale.getDefault();
+            if (!locale.equals(mSnapshotLocale)) {
+                mSnapshot = CatalogSnapshot.read(getContext());
+                mSnapshotLocale = locale;
+                mWarming = false;
+            }
+            return mSnapshot;
+        }
+    }
+
+    /** Validates the catalog, unless that has already been done for the current snapshot. */
+    private void warm() {
+        synchronized (mLock) {
+            if (mWarming) {
+                return;
+            }
+            mWarming = true;
+        }
+        mHandler.post(() -> {
+            CatalogRepository repository = CatalogRepository.getInstance(getContext());
+            repository.warm();
+            if (!repository.isLoading()) {
+                // Nothing will rewrite the snapshot, e.g. a picker is showing a catalog it
+                // already validated; try again on the next query.
+                synchronized (mLock) {
+                    mWarming = false;
+                }
+            }
+        });
+    }
+
+    private void addRow(MatrixCursor cursor, String[] projection, CatalogSnapshot.Entry entry) {
+        MatrixCursor.RowBuilder row = cursor.newRow();
+        for (String column : projection) {
+            switch (column) {
+                case COLUMN_COMPONENT:
+                    row.add(entry.component.flattenToString());
+                    break;
+                case COLUMN_LABEL:
+                    row.add(entry.label);
+                    break;
+                case COLUMN_AUTHOR:
+                    row.add(entry.author);
+                    break;
+                case COLUMN_DESCRIPTION:
+                    row.add(entry.description);
+                    break;
+                case COLUMN_SETTINGS_ACTIVITY:
+                    row.add(entry.settingsActivity);
+                    break;
+                case COLUMN_THUMBNAIL_URI:
+                    row.add(getThumbnailUri(entry.component).toString());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown column " + column);
+            }
+        }
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sMatcher.match(uri) != MATCH_THUMBNAIL) {
+            throw new FileNotFoundException("Unknown uri " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Thumbnails are read-only");
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.get(1).indexOf('/') >= 0 || segments.get(2).indexOf('/') >= 0) {
+            // Decoded from an escaped '/'; must not reach outside the cache directory.
+            throw new FileNotFoundException("Invalid uri " + uri);
+        }
+        ComponentName component = new ComponentName(segments.get(1), segments.get(2));
+        LiveWallpaperInfo wallpaper = resolve(component);
+        PackageInfo packageInfo = wallpaper != null
+                ? getPackageInfo(component.getPackageName()) : null;
+        if (packageInfo == null) {
+            throw new FileNotFoundException("Not a live wallpaper: " + component);
+        }
+        File file = mThumbnailSource.loadFile(wallpaper, packageInfo);
+        if (file == null) {
+            throw new FileNotFoundException("No thumbnail for " + component);
+        }
+        // Cached files are replaced rather than rewritten, so the descriptor stays valid even if
+        // the thumbnail is replaced while it is being read.
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns a row for the given wallpaper service, labeled as in the snapshot so that its
+     * placeholder matches the one the picker shows, or null if there is no such service.
+     */
+    private LiveWallpaperInfo resolve(ComponentName component) {
+        Context context = getContext();
+        PackageManager pm = context.getPackageManager();
+        Intent intent = new Intent(WallpaperService.SERVICE_INTERFACE)
+                .setPackage(component.getPackageName());
+        for (ResolveInfo resolveInfo : pm.queryIntentServices(intent,
+                PackageManager.GET_META_DATA)) {
+            if (resolveInfo.serviceInfo.name.equals(component.getClassName())) {
+                CatalogSnapshot snapshot = getSnapshot();
+                CatalogSnapshot.Entry entry = snapshot != null ? snapshot.get(component) : null;
+                CharSequence label = entry != null ? entry.label : resolveInfo.loadLabel(pm);
+                return LiveWallpaperInfo.placeholder(resolveInfo, label,
+                        Collator.getInstance().getCollationKey(label.toString()));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (sMatcher.match(uri)) {
+            case MATCH_WALLPAPERS:
+                return "vnd.android.cursor.dir/vnd." + AUTHORITY + ".wallpaper";
+            case MATCH_THUMBNAIL:
+                return "image/png";
+            default:
+                return null;
+        }
+    }
+
+    static Uri getThumbnailUri(ComponentName component) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath(PATH_THUMBNAILS)
+                .appendPath(component.getPackageName())
+                .appendPath(component.getClassName())
+                .build();
+    }
+
+    private PackageInfo getPackageInfo(String packageName, Map<String, PackageInfo> cache) {
+        if (cache.containsKey(packageName)) {
+            return cache.get(packageName);
+        }
+        PackageInfo packageInfo = getPackageInfo(packageName);
+        cache.put(packageName, packageInfo);
+        return packageInfo;
+    }
+
+    private PackageInfo getPackageInfo(String packageName) {
+        try {
+            return getContext().getPackageManager().getPackageInfo(packageName, 0);
+        } catch (NameNotFoundException e) {
+            // Removed since the snapshot was written.
+            return null;
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("The catalog is read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The catalog is read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The catalog is read-only");
+    }
+}
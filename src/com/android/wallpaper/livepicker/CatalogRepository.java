@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.app.WallpaperInfo;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide owner of the catalog, so that a picker that is recreated, e.g. after a rotation,
+ * or opened again shows the wallpapers at once instead of loading them anew.
+ *
+ * <p>The catalog is loaded while there are observers, and only one load is ever in flight, however
+ * many observers there are. The first load restores the rows of the last {@link CatalogSnapshot}
+ * in the background before validating them. Once the last observer is gone the load is
+ * cancelled, but the rows loaded so far are kept; the next observer sees them immediately while
+ * they are validated again. All methods must be called on the main thread.
+ */
+class CatalogRepository implements LiveWallpaperLoader.Callback {
+    private static CatalogRepository sInstance;
+
+    interface Observer {
+        /** Called with a copy of the catalog, in collated order, whenever rows come or go. */
+        void onCatalogChanged(List<LiveWallpaperInfo> catalog);
+
+        /** Called when the wallpaper info of a row has been loaded; its label is unchanged. */
+        void onWallpaperLoaded(LiveWallpaperInfo wallpaper);
+
+        /**
+         * Called when a row has been taken out because its wallpaper failed to load; the rest
+         * of the catalog is unchanged.
+         */
+        void onWallpaperRemoved(LiveWallpaperInfo wallpaper);
+
+        /** Called after the catalog changed because the given package was loaded again. */
+        void onPackageChanged(String packageName, List<LiveWallpaperInfo> wallpapers);
+
+        /** Called once the catalog has been loaded and validated. */
+        void onLoadFinished();
+    }
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Observer> mObservers = new ArrayList<>();
+
+    /** Every wallpaper, in collated order, or null until the first load has started. */
+    private List<LiveWallpaperInfo> mCatalog;
+    /** The loader of the current observers, or null while there are none. */
+    private LiveWallpaperLoader mLoader;
+    private boolean mLoading;
+    /** The current and recently used wallpapers, as of the last load. */
+    private List<ComponentName> mPriority = new ArrayList<>();
+    /** Whether the catalog is complete, and no package has changed since. */
+    private boolean mFresh;
+    /**
+     * Number of loads in flight by package that changed, whose rows may be out of date until the
+     * last of them is done.
+     */
+    private final Map<String, Integer> mPendingPackages = new HashMap<>();
+    /** Whether the catalog has changed since the snapshot was last written. */
+    private boolean mSnapshotStale;
+    /** The locale the labels of the catalog were resolved for. */
+    private Locale mLocale;
+
+    private final Runnable mStopRunnable = this::stop;
+
+    static synchronized CatalogRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CatalogRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /** Gives up the instance and its load, so that the next one starts from scratch. */
+    static synchronized void resetForTesting() {
+        if (sInstance != null) {
+            sInstance.mObservers.clear();
+            sInstance.mHandler.removeCallbacksAndMessages(null);
+            sInstance.stop();
+            sInstance.mContext.unregisterReceiver(sInstance.mPackageReceiver);
+            sInstance = null;
+        }
+    }
+
+    private CatalogRepository(Context context) {
+        mContext = context;
+
+        // Registered for the life of the process, so that the catalog can tell whether it is
+        // still fresh even while nobody is observing it.
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filter);
+    }
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())
+                    && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                // An update; the PACKAGE_ADDED that follows brings the new version.
+                return;
+            }
+            Uri data = intent.getData();
+            if (data == null) {
+                return;
+            }
+            if (mLoader != null) {
+                String packageName = data.getSchemeSpecificPart();
+                Integer pending = mPendingPackages.get(packageName);
+                mPendingPackages.put(packageName, pending != null ? pending + 1 : 1);
+                mLoader.loadPackage(packageName);
+            } else {
+                // Validated again by the next load.
+                mFresh = false;
+            }
+        }
+    };
+
+    /**
+     * Starts observing the catalog, loading it unless a load is already in flight, and returns a
+     * copy of the rows known so far.
+     */
+    List<LiveWallpaperInfo> addObserver(Observer observer) {
+        mHandler.removeCallbacks(mStopRunnable);
+        mObservers.add(observer);
+        if (mLoader == null) {
+            start();
+        }
+        return new ArrayList<>(mCatalog);
+    }
+
+    void removeObserver(Observer observer) {
+        mObservers.remove(observer);
+        if (mObservers.isEmpty()) {
+            // An activity that is recreated adds its new observer within the same message, so
+            // wait for that before giving up the load in flight.
+            mHandler.post(mStopRunnable);
+        }
+    }
+
+    /** Returns the current wallpaper, if it is a live one, and the recently used ones. */
+    List<ComponentName> getPriorityComponents() {
+        return mPriority;
+    }
+
+    /**
+     * Validates the catalog again, which rewrites the snapshot served by {@link CatalogProvider},
+     * unless a picker is already observing it. Nothing keeps observing the catalog once the load
+     * finishes.
+     */
+    void warm() {
+        if (mLoader != null) {
+            return;
+        }
+        mFresh = false;
+        addObserver(new Observer() {
+            @Override
+            public void onCatalogChanged(List<LiveWallpaperInfo> catalog) {
+            }
+
+            @Override
+            public void onWallpaperLoaded(LiveWallpaperInfo wallpaper) {
+            }
+
+            @Override
+            public void onWallpaperRemoved(LiveWallpaperInfo wallpaper) {
+            }
+
+            @Override
+            public void onPackageChanged(String packageName,
+                    List<LiveWallpaperInfo> wallpapers) {
+            }
+
+            @Override
+            public void onLoadFinished() {
+                removeObserver(this);
+            }
+        });
+    }
+
+    /** Whether the catalog is still being loaded or validated. */
+    boolean isLoading() {
+        return mLoading;
+    }
+
+    /**
+     * Returns the wallpaper info of the given component if the catalog is known to be up to date
+     * and has it parsed, or null otherwise.
+     */
+    WallpaperInfo getWallpaperInfo(ComponentName component) {
+        if (!mFresh || mPendingPackages.containsKey(component.getPackageName())) {
+            return null;
+        }
+        int position = indexOf(mCatalog, component);
+        return position >= 0 ? mCatalog.get(position).info : null;
+    }
+
+    /**
+     * Returns the wallpaper info of the given row as loaded so far, or null if the row was
+     * restored from the snapshot and its wallpaper has not been parsed.
+     */
+    WallpaperInfo getLoadedInfo(LiveWallpaperInfo wallpaper) {
+        if (wallpaper.info != null) {
+            return wallpaper.info;
+        }
+        int position = indexOf(mCatalog, wallpaper);
+        return position >= 0 ? mCatalog.get(position).info : null;
+    }
+
+    /**
+     * Resolves the labels again for the current locale and re-sorts the catalog, without parsing
+     * the wallpapers again.
+     */
+    void relocalize() {
+        mLocale = Locale.getDefault();
+        if (mLoader != null) {
+            mLoader.relocalize(new ArrayList<>(mCatalog));
+        }
+    }
+
+    private void start() {
+        if (!Locale.getDefault().equals(mLocale)) {
+            // The locale changed while nobody was observing; start over from its snapshot.
+            mLocale = Locale.getDefault();
+            mCatalog = null;
+            mFresh = false;
+        }
+        // Nothing to show yet, e.g. the first load was given up before the snapshot was read.
+        boolean restore = mCatalog == null || mCatalog.isEmpty();
+        if (mCatalog == null) {
+            mCatalog = new ArrayList<>();
+        }
+        mLoader = new LiveWallpaperLoader(mContext, this);
+        if (!mFresh) {
+            mLoading = true;
+            mLoader.load(restore);
+        }
+    }
+
+    private void stop() {
+        if (!mObservers.isEmpty() || mLoader == null) {
+            return;
+        }
+        mLoader.cancel();
+        mLoader = null;
+        if (!mPendingPackages.isEmpty() || mSnapshotStale) {
+            // Their loads or the snapshot were cancelled; validated again by the next load.
+            mPendingPackages.clear();
+            mSnapshotStale = false;
+            mFresh = false;
+        }
+        if (mLoading) {
+            mLoading = false;
+            mFresh = false;
+        }
+    }
+
+    @Override
+    public void onSnapshotRestored(List<LiveWallpaperInfo> wallpapers) {
+        if (mCatalog.isEmpty()) {
+            mCatalog = wallpapers;
+            dispatchCatalogChanged();
+        }
+    }
+
+    @Override
+    public void onWallpapersSorted(List<LiveWallpaperInfo> wallpapers,
+            List<ComponentName> priority) {
+        mCatalog = wallpapers;
+        mPriority = priority;
+        dispatchCatalogChanged();
+    }
+
+    @Override
+    public void onWallpaperLoaded(LiveWallpaperInfo wallpaper) {
+        int position = indexOf(mCatalog, wallpaper);
+        if (position < 0) {
+            return;
+        }
+        // Keep the current label, which may have been resolved for a newer locale.
+        LiveWallpaperInfo loaded = mCatalog.get(position).withInfoOf(wallpaper);
+        mCatalog.set(position, loaded);
+        for (Observer observer : new ArrayList<>(mObservers)) {
+            observer.onWallpaperLoaded(loaded);
+        }
+    }
+
+    @Override
+    public void onWallpaperSkipped(LiveWallpaperInfo wallpaper) {
+        int position = indexOf(mCatalog, wallpaper);
+        if (position < 0) {
+            return;
+        }
+        LiveWallpaperInfo removed = mCatalog.remove(position);
+        // Only this row is gone, so observers need not compare the whole catalog.
+        for (Observer observer : new ArrayList<>(mObservers)) {
+            observer.onWallpaperRemoved(removed);
+        }
+    }
+
+    @Override
+    public void onLoadFinished() {
+        mLoading = false;
+        mFresh = true;
+        if (mSnapshotStale) {
+            // A package was loaded again during the load, after its rows were collected.
+            mLoader.writeSnapshot(new ArrayList<>(mCatalog));
+        } else {
+            // A new snapshot has been written.
+            mContext.getContentResolver().notifyChange(CatalogProvider.CONTENT_URI, null);
+        }
+        for (Observer observer : new ArrayList<>(mObservers)) {
+            observer.onLoadFinished();
+        }
+    }
+
+    @Override
+    public void onWallpapersRelocalized(List<LiveWallpaperInfo> wallpapers) {
+        // Rows may have been loaded or skipped while the labels were being resolved, so merge
+        // the new labels into the current rows rather than taking the list as is.
+        Map<ComponentName, LiveWallpaperInfo> current = new HashMap<>();
+        for (LiveWallpaperInfo wallpaper : mCatalog) {
+            current.put(wallpaper.component, wallpaper);
+        }
+        List<LiveWallpaperInfo> merged = new ArrayList<>(current.size());
+        for (LiveWallpaperInfo wallpaper : wallpapers) {
+            LiveWallpaperInfo row = current.get(wallpaper.component);
+            if (row != null) {
+                merged.add(row.withLabel(wallpaper.label, wallpaper.sortKey));
+            }
+        }
+        mCatalog = merged;
+        dispatchCatalogChanged();
+    }
+
+    @Override
+    public void onPackageLoaded(String packageName, List<LiveWallpaperInfo> wallpapers) {
+        Integer pending = mPendingPackages.remove(packageName);
+        if (pending != null && pending > 1) {
+            mPendingPackages.put(packageName, pending - 1);
+        }
+        // Take out the old rows of the package and splice the new ones into the sorted list.
+        List<LiveWallpaperInfo> catalog = new ArrayList<>(mCatalog.size() + wallpapers.size());
+        for (LiveWallpaperInfo wallpaper : mCatalog) {
+            if (!wallpaper.component.getPackageName().equals(packageName)) {
+                catalog.add(wallpaper);
+            }
+        }
+        for (LiveWallpaperInfo wallpaper : wallpapers) {
+            int position = Collections.binarySearch(catalog, wallpaper, LiveWallpaperInfo.ORDER);
+            catalog.add(position < 0 ? -position - 1 : position, wallpaper);
+        }
+        mCatalog = catalog;
+        dispatchCatalogChanged();
+        for (Observer observer : new ArrayList<>(mObservers)) {
+            observer.onPackageChanged(packageName, wallpapers);
+        }
+        // The provider serves the snapshot, so it is written again for the package; a load in
+        // flight rewrites it once it has finished.
+        mSnapshotStale = true;
+        if (!mLoading) {
+            mLoader.writeSnapshot(new ArrayList<>(mCatalog));
+        }
+    }
+
+    @Override
+    public void onSnapshotWritten() {
+        mSnapshotStale = false;
+        mContext.getContentResolver().notifyChange(CatalogProvider.CONTENT_URI, null);
+    }
+
+    private void dispatchCatalogChanged() {
+        for (Observer observer : new ArrayList<>(mObservers)) {
+            observer.onCatalogChanged(new ArrayList<>(mCatalog));
+        }
+    }
+
+    private static int indexOf(List<LiveWallpaperInfo> wallpapers,
+            LiveWallpaperInfo wallpaper) {
+        int position = Collections.binarySearch(wallpapers, wallpaper, LiveWallpaperInfo.ORDER);
+        if (position >= 0) {
+            return position;
+        }
+        // The row was sorted under a different locale; fall back to a linear scan.
+        return indexOf(wallpapers, wallpaper.component);
+    }
+
+    private static int indexOf(List<LiveWallpaperInfo> wallpapers, ComponentName component) {
+        for (int i = 0; i < wallpapers.size(); i++) {
+            if (wallpapers.get(i).component.equals(component)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.text.TextUtils;
+
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix index over the label, author and description of the wallpapers in the catalog. Text is
+ * split into words that are lowercased and stripped of accents, and a query matches the
+ * wallpapers that have, for every word of the query, a word starting with it.
+ *
+ * <p>Rows are added and removed one at a time as the catalog changes, so the index never has to
+ * be rebuilt. All methods must be called on the main thread.
+ */
+class CatalogSearchIndex {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /** Components by every word they contain, sorted so that a prefix is a range of keys. */
+    private final TreeMap<String, Set<ComponentName>> mComponentsByWord = new TreeMap<>();
+    private final Map<ComponentName, Set<String>> mWordsByComponent = new HashMap<>();
+
+    /**
+     * Indexes the given row, replacing what was indexed for its component before.
+     */
+    void add(LiveWallpaperInfo wallpaper) {
+        remove(wallpaper.component);
+        Set<String> words = new HashSet<>();
+        addWords(words, wallpaper.label);
+        addWords(words, wallpaper.author);
+        addWords(words, wallpaper.description);
+        for (String word : words) {
+            Set<ComponentName> components = mComponentsByWord.get(word);
+            if (components == null) {
+                components = new HashSet<>();
+                mComponentsByWord.put(word, components);
+            }
+            components.add(wallpaper.component);
+        }
+        mWordsByComponent.put(wallpaper.component, words);
+    }
+
+    void remove(ComponentName component) {
+        Set<String> words = mWordsByComponent.remove(component);
+        if (words == null) {
+            return;
+        }
+        for (String word : words) {
+            Set<ComponentName> components = mComponentsByWord.get(word);
+            components.remove(component);
+            if (components.isEmpty()) {
+                mComponentsByWord.remove(word);
+            }
+        }
+    }
+
+    void addAll(Collection<LiveWallpaperInfo> wallpapers) {
+        for (LiveWallpaperInfo wallpaper : wallpapers) {
+            add(wallpaper);
+        }
+    }
+
+    /**
+     * Returns the components matching the given query, which must contain at least one word.
+     */
+    Set<ComponentName> search(String query) {
+        Set<ComponentName> result = null;
+        for (String prefix : split(query)) {
+            Set<ComponentName> matches = new HashSet<>();
+            for (Set<ComponentName> components : mComponentsByWord.subMap(
+                    prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                matches.addAll(components);
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.retainAll(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : new HashSet<>();
+    }
+
+    /**
+     * Whether the indexed text of the given component matches the given query, which must
+     * contain at least one word. Only looks at the words of that component.
+     */
+    boolean matches(ComponentName component, String query) {
+        Set<String> words = mWordsByComponent.get(component);
+        if (words == null) {
+            return false;
+        }
+        for (String prefix : split(query)) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether the given query contains any word to search for. */
+    static boolean isSearchable(String query) {
+        return split(query).length > 0;
+    }
+
+    private static void addWords(Set<String> words, CharSequence text) {
+        if (text != null) {
+            for (String word : split(text.toString())) {
+                words.add(word);
+            }
+        }
+    }
+
+    private static String[] split(String text) {
+        if (TextUtils.isEmpty(text)) {
+            return new String[0];
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("").toLowerCase(Locale.getDefault()).trim();
+        String[] words = SEPARATORS.split(normalized);
+        if (words.length > 0 && words[0].isEmpty()) {
+            // The text started with a separator.
+            String[] rest = new String[words.length - 1];
+            System.arraycopy(words, 1, rest, 0, rest.length);
+            return rest;
+        }
+        return words;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.ResolveInfo;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The catalog as it was at the end of the previous load, so that the picker can show real
+ * titles and cached thumbnails before any wallpaper package has been looked at.
+ *
+ * <p>Every entry carries the version stamp of its package. An entry whose package has not changed
+ * since can be used as is; only the others need their wallpaper info parsed again. Labels are
+ * stored for the locale they were resolved in, in collated order, and the snapshot is ignored
+ * under any other locale.
+ */
+class CatalogSnapshot {
+    private static final String LOG_TAG = "CatalogSnapshot";
+
+    private static final String FILE_NAME = "catalog_snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int FORMAT_VERSION = 1;
+
+    /** A snapshotted row and the version stamp of its package. */
+    static class Entry {
+        final ComponentName component;
+        final String label;
+        final String author;
+        final String description;
+        final String settingsActivity;
+        final int versionCode;
+        final long lastUpdateTime;
+
+        Entry(ComponentName component, String label, String author, String description,
+                String settingsActivity, int versionCode, long lastUpdateTime) {
+            this.component = component;
+            this.label = label;
+            this.author = author;
+            this.description = description;
+            this.settingsActivity = settingsActivity;
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+
+        /** Whether this entry was taken from the given version of its package. */
+        boolean matches(PackageInfo packageInfo) {
+            return packageInfo != null && packageInfo.versionCode == versionCode
+                    && packageInfo.lastUpdateTime == lastUpdateTime;
+        }
+
+        LiveWallpaperInfo toRow(ResolveInfo resolveInfo, Collator collator) {
+            return LiveWallpaperInfo.restored(component, resolveInfo, label,
+                    collator.getCollationKey(label), author, description, settingsActivity);
+        }
+    }
+
+    private final List<Entry> mEntries;
+    private final Map<ComponentName, Entry> mEntriesByComponent;
+
+    private CatalogSnapshot(List<Entry> entries) {
+        mEntries = entries;
+        mEntriesByComponent = new HashMap<>(entries.size());
+        for (Entry entry : entries) {
+            mEntriesByComponent.put(entry.component, entry);
+        }
+    }
+
+    Entry get(ComponentName component) {
+        return mEntriesByComponent.get(component);
+    }
+
+    /** Returns the snapshotted entries in collated order. */
+    List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Returns the snapshotted rows in collated order. They have no resolve info yet.
+     */
+    List<LiveWallpaperInfo> toRows() {
+        Collator collator = Collator.getInstance();
+        List<LiveWallpaperInfo> rows = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries) {
+            rows.add(entry.toRow(null, collator));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the snapshot written for the current locale, or null if there is none.
+     */
+    static CatalogSnapshot read(Context context) {
+        File file = getFile(context);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION
+                    || !in.readUTF().equals(Locale.getDefault().toLanguageTag())) {
+                return null;
+            }
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ComponentName component = new ComponentName(in.readUTF(), in.readUTF());
+                entries.add(new Entry(component, in.readUTF(), readOptionalUTF(in),
+                        readOptionalUTF(in), readOptionalUTF(in), in.readInt(), in.readLong()));
+            }
+            return new CatalogSnapshot(entries);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the given rows, which must be in collated order for the current
+     * locale. Rows whose package is not in {@code packageInfos} are left out. Writes are
+     * serialized, since they share a temporary file.
+     */
+    static synchronized void write(Context context, List<LiveWallpaperInfo> wallpapers,
+            Map<String, PackageInfo> packageInfos) {
+        List<Entry> entries = new ArrayList<>(wallpapers.size());
+        for (LiveWallpaperInfo wallpaper : wallpapers) {
+            PackageInfo packageInfo = packageInfos.get(wallpaper.component.getPackageName());
+            if (packageInfo != null) {
+                entries.add(new Entry(wallpaper.component, wallpaper.label.toString(),
+                        toString(wallpaper.author), toString(wallpaper.description),
+                        wallpaper.settingsActivity, packageInfo.versionCode,
+                        packageInfo.lastUpdateTime));
+            }
+        }
+
+        // Write to a temporary file first so that a concurrent reader never sees a partial list.
+        File file = getFile(context);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(Locale.getDefault().toLanguageTag());
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.component.getPackageName());
+                out.writeUTF(entry.component.getClassName());
+                out.writeUTF(entry.label);
+                writeOptionalUTF(out, entry.author);
+                writeOptionalUTF(out, entry.description);
+                writeOptionalUTF(out, entry.settingsActivity);
+                out.writeInt(entry.versionCode);
+                out.writeLong(entry.lastUpdateTime);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed writing " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(LOG_TAG, "Failed renaming " + temp);
+            temp.delete();
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    private static String toString(CharSequence text) {
+        return text != null ? text.toString() : null;
+    }
+
+    private static String readOptionalUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptionalUTF(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
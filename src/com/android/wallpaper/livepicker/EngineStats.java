@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persisted start-up cost of every wallpaper previewed so far: how long its engine took to show
+ * its first frame, and how often it failed to within the watchdog timeouts. Lets the picker flag
+ * wallpapers that are known to be slow before they are tapped.
+ */
+class EngineStats {
+    private static final String PREFS_NAME = "engine_stats";
+    /** Weight of a new start-up time in the running average, as a fraction 1/N. */
+    private static final int AVERAGE_WEIGHT = 4;
+
+    private static EngineStats sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final long mSlowStartMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /** Loaded from the preferences on first use. */
+    private Map<ComponentName, Entry> mEntries;
+    /**
+     * The wallpapers that are slow as of the last load or change, replaced rather than updated so
+     * that {@link #isSlow} can read it without the lock; null until the entries are loaded.
+     */
+    private volatile Set<ComponentName> mSlow;
+
+    static synchronized EngineStats getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EngineStats(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private EngineStats(Context context) {
+        // Starts reading the file in the background, ahead of the first use.
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mSlowStartMillis = context.getResources().getInteger(
+                R.integer.live_wallpaper_slow_start_ms);
+    }
+
+    /** Records that the engine of the given wallpaper showed its first frame in time. */
+    synchronized void recordStartup(ComponentName component, long millis) {
+        Entry entry = getEntryLocked(component);
+        entry.averageMillis = entry.starts == 0 ? millis
+                : entry.averageMillis + (millis - entry.averageMillis) / AVERAGE_WEIGHT;
+        entry.starts++;
+        entry.lastFailed = false;
+        save(component, entry);
+        updateSlowLocked();
+    }
+
+    /** Records that the engine of the given wallpaper timed out while starting. */
+    synchronized void recordFailure(ComponentName component) {
+        Entry entry = getEntryLocked(component);
+        entry.failures++;
+        entry.lastFailed = true;
+        save(component, entry);
+        updateSlowLocked();
+    }
+
+    /**
+     * Reads the stats in the background unless they have been read already, and then runs
+     * {@code onLoaded} on the main thread.
+     */
+    void load(Runnable onLoaded) {
+        if (mSlow != null) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            synchronized (EngineStats.this) {
+                getEntriesLocked();
+            }
+            mHandler.post(onLoaded);
+        });
+    }
+
+    /**
+     * Whether the given wallpaper failed to start the last time it was previewed, or usually
+     * takes longer than {@code live_wallpaper_slow_start_ms} to show its first frame. Never
+     * blocks, so it is false for every wallpaper until the stats have been {@link #load loaded}.
+     */
+    boolean isSlow(ComponentName component) {
+        Set<ComponentName> slow = mSlow;
+        return slow != null && slow.contains(component);
+    }
+
+    synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Engine start-up:");
+        for (Map.Entry<ComponentName, Entry> entry : getEntriesLocked().entrySet()) {
+            Entry stats = entry.getValue();
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(entry.getKey().flattenToShortString());
+            writer.print(": starts=");
+            writer.print(stats.starts);
+            writer.print(" avg=");
+            writer.print(stats.averageMillis);
+            writer.print("ms failures=");
+            writer.print(stats.failures);
+            if (stats.lastFailed) {
+                writer.print(" (last failed)");
+            }
+            writer.println();
+        }
+    }
+
+    private Entry getEntryLocked(ComponentName component) {
+        Map<ComponentName, Entry> entries = getEntriesLocked();
+        Entry entry = entries.get(component);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(component, entry);
+        }
+        return entry;
+    }
+
+    private Map<ComponentName, Entry> getEntriesLocked() {
+        if (mEntries == null) {
+            mEntries = new HashMap<>();
+            for (Map.Entry<String, ?> pref : mPrefs.getAll().entrySet()) {
+                ComponentName component = ComponentName.unflattenFromString(pref.getKey());
+                Entry entry = pref.getValue() instanceof String
+                        ? Entry.parse((String) pref.getValue()) : null;
+                if (component != null && entry != null) {
+                    mEntries.put(component, entry);
+                }
+            }
+            updateSlowLocked();
+        }
+        return mEntries;
+    }
+
+    private void updateSlowLocked() {
+        Set<ComponentName> slow = new HashSet<>();
+        for (Map.Entry<ComponentName, Entry> entry : mEntries.entrySet()) {
+            Entry stats = entry.getValue();
+            if (stats.lastFailed
+                    || (stats.starts > 0 && stats.averageMillis >= mSlowStartMillis)) {
+                slow.add(entry.getKey());
+            }
+        }
+        mSlow = Collections.unmodifiableSet(slow);
+    }
+
+    private void save(ComponentName component, Entry entry) {
+        // Written to disk in the background.
+        mPrefs.edit().putString(component.flattenToShortString(), entry.toString()).apply();
+    }
+
+    private static class Entry {
+        int starts;
+        int failures;
+        long averageMillis;
+        boolean lastFailed;
+
+        static Entry parse(String value) {
+            String[] fields = TextUtils.split(value, " ");
+            if (fields.length != 4) {
+                return null;
+            }
+            try {
+                Entry entry = new Entry();
+                entry.starts = Integer.parseInt(fields[0]);
+                entry.failures = Integer.parseInt(fields[1]);
+                entry.averageMillis = Long.parseLong(fields[2]);
+                entry.lastFailed = Boolean.parseBoolean(fields[3]);
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return starts + " " + failures + " " + averageMillis + " " + lastFailed;
+        }
+    }
+}
@@ -16,25 +16,144 @@
 
 package com.android.wallpaper.livepicker;
 
-import android.app.ListActivity;
+import android.app.Activity;
 import android.app.WallpaperInfo;
+import android.app.WallpaperManager;
 import android.content.Intent;
+import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Trace;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.ListView;
+import android.widget.SearchView;
+import android.widget.TextView;
 
-public class LiveWallpaperActivity extends ListActivity {
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+public class LiveWallpaperActivity extends Activity
+        implements LiveWallpaperListAdapter.OnWallpaperClickListener {
     private static final int REQUEST_PREVIEW = 100;
 
     private LiveWallpaperListAdapter mAdapter;
+    private RecyclerView mList;
+    private TextView mEmpty;
+    private SearchView mSearchView;
+    /** The query typed so far, kept while the menu is rebuilt. */
+    private String mQuery;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Trace.beginSection("LiveWallpaperActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.live_wallpaper_base);
 
+        final RecyclerView list = (RecyclerView) findViewById(android.R.id.list);
+        mList = list;
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setItemPrefetchEnabled(true);
+        list.setLayoutManager(layoutManager);
+        list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Also called after every layout that changes the visible rows.
+                mAdapter.onVisibleRangeChanged(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition());
+            }
+        });
+        mEmpty = (TextView) findViewById(android.R.id.empty);
+
         mAdapter = new LiveWallpaperListAdapter(this);
-        setListAdapter(mAdapter);
+        mAdapter.setOnWallpaperClickListener(this);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        list.setAdapter(mAdapter);
+        updateEmptyView();
+        Trace.endSection();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // The activity handles locale changes itself so that the catalog does not need to be
+        // loaded again; only the labels are resolved and sorted anew.
+        setTitle(R.string.live_wallpaper_picker_label);
+        updateEmptyView();
+        // Rebuilt with the search hint and title of the new locale; the query is kept.
+        invalidateOptionsMenu();
+        mAdapter.relocalize();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_picker, menu);
+        MenuItem searchItem = menu.findItem(R.id.search);
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        mSearchView = searchView;
+        searchView.setQueryHint(getString(R.string.search_live_wallpapers));
+        if (!TextUtils.isEmpty(mQuery)) {
+            searchItem.expandActionView();
+            searchView.setQuery(mQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // The list is filtered as the query is typed.
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                if (searchView != mSearchView) {
+                    // Cleared as the menu it belonged to was replaced.
+                    return true;
+                }
+                mQuery = newText;
+                mAdapter.setFilter(newText);
+                mList.scrollToPosition(0);
+                updateEmptyView();
+                return true;
+            }
+        });
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAdapter.destroy();
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        CatalogMetrics.getInstance().dump(prefix, writer);
+        PreviewMetrics.getInstance().dump(prefix, writer);
+        EngineStats.getInstance(this).dump(prefix, writer);
+    }
+
+    private void updateEmptyView() {
+        mEmpty.setText(mAdapter.isFiltered()
+                ? R.string.live_wallpaper_no_matches : R.string.live_wallpaper_empty);
+        mEmpty.setVisibility(mAdapter.isEmpty() ? View.VISIBLE : View.GONE);
     }
 
     @Override
@@ -43,19 +162,42 @@ public class LiveWallpaperActivity extends ListActivity {
 
         if (requestCode == REQUEST_PREVIEW) {
             if (resultCode == RESULT_OK) finish();
+            // The preview may have found the wallpaper to be slow, or no longer slow.
+            mAdapter.onEngineStatsChanged();
         }
     }
 
     @Override
-    protected void onListItemClick(ListView l, View v, int position, long id) {
-        LiveWallpaperListAdapter.LiveWallpaperInfo wallpaperInfo =
-                (LiveWallpaperListAdapter.LiveWallpaperInfo) mAdapter.getItem(position);
-        final WallpaperInfo info = wallpaperInfo.info;
+    public void onWallpaperPressed(LiveWallpaperInfo wallpaperInfo) {
+        // Start the wallpaper service now, so it is likely running by the time the preview is up.
+        WallpaperPrebinder.getInstance().prebind(this, wallpaperInfo.component);
+    }
+
+    @Override
+    public void onWallpaperPressCancelled(LiveWallpaperInfo wallpaperInfo) {
+        WallpaperPrebinder.getInstance().release(wallpaperInfo.component);
+    }
+
+    @Override
+    public void onWallpaperClick(LiveWallpaperInfo wallpaperInfo) {
+        final WallpaperInfo info = mAdapter.getWallpaperInfo(wallpaperInfo);
+        final Intent preview;
         if (info != null) {
-            Intent preview = new Intent(this, LiveWallpaperPreview.class);
+            preview = new Intent(this, LiveWallpaperPreview.class);
             preview.putExtra(LiveWallpaperPreview.EXTRA_LIVE_WALLPAPER_INFO, info);
-            startActivityForResult(preview, REQUEST_PREVIEW);
+        } else {
+            // Not parsed yet, since its package has not changed since the snapshot; the preview
+            // resolves it in the background behind a loading screen.
+            preview = new Intent(this, LiveWallpaperChange.class);
+            preview.putExtra(WallpaperManager.EXTRA_LIVE_WALLPAPER_COMPONENT,
+                    wallpaperInfo.component);
         }
+        // Saves the preview from loading the wallpaper's resources again.
+        preview.putExtra(LiveWallpaperPreview.EXTRA_LIVE_WALLPAPER_LABEL, wallpaperInfo.label);
+        preview.putExtra(LiveWallpaperPreview.EXTRA_LIVE_WALLPAPER_AUTHOR, wallpaperInfo.author);
+        preview.putExtra(LiveWallpaperPreview.EXTRA_LIVE_WALLPAPER_DESCRIPTION,
+                wallpaperInfo.description);
+        startActivityForResult(preview, REQUEST_PREVIEW);
     }
 
 }
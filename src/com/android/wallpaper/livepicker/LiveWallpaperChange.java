@@ -20,8 +20,11 @@ import android.app.WallpaperInfo;
 import android.app.WallpaperManager;
 import android.content.ComponentName;
 import android.content.Intent;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
+import android.os.AsyncTask;
 import android.os.Parcelable;
 import android.service.wallpaper.WallpaperService;
 import android.util.Log;
@@ -34,6 +37,8 @@ import java.util.List;
 public class LiveWallpaperChange extends LiveWallpaperPreview {
     private static final String TAG = "CHANGE_LIVE_WALLPAPER";
 
+    private ResolveTask mResolveTask;
+
     @Override
     protected void init() {
         Parcelable obj = getIntent().getParcelableExtra(
@@ -44,35 +49,98 @@ public class LiveWallpaperChange extends LiveWallpaperPreview {
             return;
         }
 
-        ComponentName comp = (ComponentName)obj;
+        // A picker in this process may already have parsed the wallpaper, and is told about
+        // every package change since, so its info can be used as is.
+        WallpaperInfo info = CatalogRepository.getInstance(this).getWallpaperInfo(
+                (ComponentName) obj);
+        if (info != null) {
+            initUI(info);
+            return;
+        }
+
+        // Resolving the component means parsing the wallpaper's package, which can be slow, so
+        // it is done in the background while a loading screen is shown.
+        setContentView(R.layout.live_wallpaper_change_loading);
+        mResolveTask = new ResolveTask((ComponentName) obj);
+        mResolveTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mResolveTask != null) {
+            mResolveTask.cancel(false);
+            mResolveTask = null;
+        }
+    }
 
+    /**
+     * Returns the info of the given live wallpaper, or null if it is not one. Called on a
+     * background thread.
+     */
+    private WallpaperInfo resolve(ComponentName comp) {
         // Get the information about this component.  Implemented this way
         // to not allow us to direct the caller to a service that is not a
         // live wallpaper.
+        PackageManager pm = getPackageManager();
         Intent queryIntent = new Intent(WallpaperService.SERVICE_INTERFACE);
         queryIntent.setPackage(comp.getPackageName());
-        List<ResolveInfo> list = getPackageManager().queryIntentServices(
+        List<ResolveInfo> list = pm.queryIntentServices(
                 queryIntent, PackageManager.GET_META_DATA);
         if (list != null) {
             for (int i=0; i<list.size(); i++) {
                 ResolveInfo ri = list.get(i);
                 if (ri.serviceInfo.name.equals(comp.getClassName())) {
-                    WallpaperInfo info;
+                    PackageInfo packageInfo = null;
+                    try {
+                        packageInfo = pm.getPackageInfo(comp.getPackageName(), 0);
+                    } catch (NameNotFoundException e) {
+                        // Removed since the query; parse it anyway, without caching.
+                    }
+                    WallpaperInfoCache cache = WallpaperInfoCache.getInstance();
+                    WallpaperInfo info = cache.get(comp, packageInfo);
+                    if (info != null) {
+                        return info;
+                    }
                     try {
-                        info = new WallpaperInfo(this, ri);
+                        info = LiveWallpaperLoader.parseWallpaperInfo(this, ri);
                     } catch (XmlPullParserException|IOException e) {
                         Log.w(TAG, "Bad wallpaper " + ri.serviceInfo, e);
-                        finish();
-                        return;
+                        return null;
                     }
-
-                    initUI(info);
-                    return;
+                    cache.put(comp, packageInfo, info);
+                    return info;
                 }
             }
         }
 
         Log.w(TAG, "Not a live wallpaper: " + comp);
-        finish();
+        return null;
+    }
+
+    private class ResolveTask extends AsyncTask<Void, Void, WallpaperInfo> {
+        private final ComponentName mComponent;
+
+        ResolveTask(ComponentName component) {
+            mComponent = component;
+        }
+
+        @Override
+        protected WallpaperInfo doInBackground(Void... params) {
+            return resolve(mComponent);
+        }
+
+        @Override
+        protected void onPostExecute(WallpaperInfo info) {
+            mResolveTask = null;
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            if (info == null) {
+                finish();
+                return;
+            }
+            initUI(info);
+        }
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.app.WallpaperInfo;
+import android.content.ComponentName;
+import android.content.pm.ResolveInfo;
+
+import java.text.CollationKey;
+import java.util.Comparator;
+
+/**
+ * Immutable row of the picker list. The label and its collation key are resolved once when the
+ * catalog is loaded, so sorting and binding never go back to the wallpaper's resources.
+ *
+ * <p>A row starts out as a placeholder that only knows its service and label, or as a row
+ * restored from the {@link CatalogSnapshot}, and is replaced by a loaded row once its
+ * {@link WallpaperInfo} is available. Thumbnails are not part of the
+ * row; they are loaded on demand by {@link ThumbnailLoader}.
+ */
+public class LiveWallpaperInfo {
+    /** Orders rows by label, then by component so that equal labels sort deterministically. */
+    static final Comparator<LiveWallpaperInfo> ORDER = new Comparator<LiveWallpaperInfo>() {
+        @Override
+        public int compare(LiveWallpaperInfo lhs, LiveWallpaperInfo rhs) {
+            int result = lhs.sortKey.compareTo(rhs.sortKey);
+            if (result == 0) {
+                result = lhs.component.compareTo(rhs.component);
+            }
+            return result;
+        }
+    };
+
+    public final ComponentName component;
+    public final ResolveInfo resolveInfo;
+    public final CharSequence label;
+    public final CollationKey sortKey;
+    public final CharSequence author;
+    public final CharSequence description;
+    public final String settingsActivity;
+    public final WallpaperInfo info;
+
+    private LiveWallpaperInfo(ComponentName component, ResolveInfo resolveInfo,
+            CharSequence label, CollationKey sortKey, CharSequence author,
+            CharSequence description, String settingsActivity, WallpaperInfo info) {
+        this.component = component;
+        this.resolveInfo = resolveInfo;
+        this.label = label;
+        this.sortKey = sortKey;
+        this.author = author;
+        this.description = description;
+        this.settingsActivity = settingsActivity;
+        this.info = info;
+    }
+
+    static LiveWallpaperInfo placeholder(ResolveInfo resolveInfo, CharSequence label,
+            CollationKey sortKey) {
+        return new LiveWallpaperInfo(new ComponentName(resolveInfo.serviceInfo.packageName,
+                resolveInfo.serviceInfo.name), resolveInfo, label, sortKey, null, null, null,
+                null);
+    }
+
+    /**
+     * Returns a row restored from the catalog snapshot. Its metadata is known, but its
+     * {@link WallpaperInfo} has not been parsed; {@code resolveInfo} is null until the snapshot
+     * has been validated against the package manager.
+     */
+    static LiveWallpaperInfo restored(ComponentName component, ResolveInfo resolveInfo,
+            CharSequence label, CollationKey sortKey, CharSequence author,
+            CharSequence description, String settingsActivity) {
+        return new LiveWallpaperInfo(component, resolveInfo, label, sortKey, author,
+                description, settingsActivity, null);
+    }
+
+    /** Returns a copy of this row with its wallpaper info and metadata filled in. */
+    LiveWallpaperInfo withInfo(WallpaperInfo info, CharSequence author,
+            CharSequence description) {
+        return new LiveWallpaperInfo(component, resolveInfo, label, sortKey, author,
+                description, info.getSettingsActivity(), info);
+    }
+
+    /** Returns a copy of this row with the wallpaper info of another copy of it. */
+    LiveWallpaperInfo withInfoOf(LiveWallpaperInfo other) {
+        return new LiveWallpaperInfo(component, other.resolveInfo, label, sortKey, other.author,
+                other.description, other.settingsActivity, other.info);
+    }
+
+    /** Returns a copy of this row with a label resolved for a different locale. */
+    LiveWallpaperInfo withLabel(CharSequence label, CollationKey sortKey) {
+        return new LiveWallpaperInfo(component, resolveInfo, label, sortKey, author,
+                description, settingsActivity, info);
+    }
+
+    /** Whether the wallpaper info of this row has been loaded. */
+    boolean isLoaded() {
+        return info != null;
+    }
+}
@@ -17,223 +17,632 @@
 package com.android.wallpaper.livepicker;
 
 import android.app.WallpaperInfo;
+import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
-import android.service.wallpaper.WallpaperService;
-import android.text.Html;
-import android.util.Log;
-import android.view.Gravity;
+import android.os.Trace;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
-import android.widget.ListAdapter;
 import android.widget.TextView;
 
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.IOException;
-import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public class LiveWallpaperListAdapter extends BaseAdapter implements ListAdapter {
+public class LiveWallpaperListAdapter
+        extends RecyclerView.Adapter<LiveWallpaperListAdapter.ViewHolder>
+        implements CatalogRepository.Observer, ThumbnailLoader.Callback {
     private static final String LOG_TAG = "LiveWallpaperListAdapter";
 
+    public interface OnWallpaperClickListener {
+        /**
+         * Called when a row has been touched for the tap timeout without scrolling, or tapped,
+         * before it is known whether it will be clicked.
+         */
+        void onWallpaperPressed(LiveWallpaperInfo wallpaper);
+
+        /** Called when a pressed row turns out not to be clicked, e.g. because it scrolled. */
+        void onWallpaperPressCancelled(LiveWallpaperInfo wallpaper);
+
+        void onWallpaperClick(LiveWallpaperInfo wallpaper);
+    }
+
     private final LayoutInflater mInflater;
-    private final PackageManager mPackageManager;
 
+    private static final Object PAYLOAD_THUMBNAIL = new Object();
+    private static final Object PAYLOAD_ENGINE_STATS = new Object();
+
+    private final CatalogRepository mRepository;
+    private final EngineStats mEngineStats;
+    private final ThumbnailLoader mThumbnailLoader;
+    private final int mPrefetchRows;
+    private final Map<ComponentName, Long> mIds = new HashMap<>();
+    private final Map<ComponentName, Integer> mBoundCounts = new HashMap<>();
+
+    private final CatalogSearchIndex mIndex = new CatalogSearchIndex();
+
+    /** Every wallpaper, in collated order. */
+    private List<LiveWallpaperInfo> mCatalog;
+    /** Rows of the current and recently used wallpapers, whose thumbnails are kept loaded. */
+    private List<LiveWallpaperInfo> mPriorityRows = new ArrayList<>();
+    /** The wallpapers shown, which are the ones in the catalog that match the filter. */
     private List<LiveWallpaperInfo> mWallpapers;
+    private String mQuery;
+    private OnWallpaperClickListener mListener;
+    private boolean mLoading;
 
-    @SuppressWarnings("unchecked")
     public LiveWallpaperListAdapter(Context context) {
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mPackageManager = context.getPackageManager();
+        mPrefetchRows = context.getResources().getInteger(
+                R.integer.live_wallpaper_thumbnail_prefetch_rows);
+        setHasStableIds(true);
+
+        mThumbnailLoader = new ThumbnailLoader(context, this);
+        // Rows are bound without the slow flag until the stats have been read.
+        mEngineStats = EngineStats.getInstance(context);
+        mEngineStats.load(this::onEngineStatsLoaded);
+
+        // The repository outlives the activity, so a recreated picker gets the rows it already
+        // has.
+        mRepository = CatalogRepository.getInstance(context);
+        mCatalog = mRepository.addObserver(this);
+        mIndex.addAll(mCatalog);
+        mWallpapers = new ArrayList<>(mCatalog);
+        updatePriorityRows();
+        mLoading = mRepository.isLoading();
+    }
 
-        List<ResolveInfo> list = mPackageManager.queryIntentServices(
-                new Intent(WallpaperService.SERVICE_INTERFACE),
-                PackageManager.GET_META_DATA);
+    public void setOnWallpaperClickListener(OnWallpaperClickListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Stops observing the catalog and returns the thumbnails that are not displayed to the
+     * bitmap pool. Must be called when the adapter is no longer in use.
+     */
+    public void destroy() {
+        mRepository.removeObserver(this);
+        mThumbnailLoader.destroy();
+        mCatalog = new ArrayList<>();
+        mWallpapers = new ArrayList<>();
+    }
 
-        mWallpapers = generatePlaceholderViews(list.size());
+    /**
+     * Shows only the wallpapers whose label, author or description has words starting with the
+     * words of the given query, or all of them if the query has no words.
+     */
+    public void setFilter(String query) {
+        String oldQuery = mQuery;
+        mQuery = CatalogSearchIndex.isSearchable(query) ? query : null;
+        if (!TextUtils.equals(oldQuery, mQuery)) {
+            dispatchFilterChange(mWallpapers, filter(mCatalog));
+        }
+    }
 
-        new LiveWallpaperEnumerator(context).execute(list);
+    /** Whether only the wallpapers matching a query are shown. */
+    public boolean isFiltered() {
+        return mQuery != null;
     }
 
-    private List<LiveWallpaperInfo> generatePlaceholderViews(int amount) {
-        ArrayList<LiveWallpaperInfo> list = new ArrayList<LiveWallpaperInfo>(amount);
-        for (int i = 0; i < amount; i++) {
-            LiveWallpaperInfo info = new LiveWallpaperInfo();
-            list.add(info);
+    /**
+     * Loads the thumbnails of the rows between {@code first} and {@code last}, and prefetches
+     * the ones of the rows around them. Thumbnail requests for all other rows are cancelled.
+     */
+    public void onVisibleRangeChanged(int first, int last) {
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int start = Math.max(0, first - mPrefetchRows);
+        int end = Math.min(mWallpapers.size() - 1, last + mPrefetchRows);
+        Set<ComponentName> wanted = new HashSet<>();
+        for (int position = first; position <= last && position <= end; position++) {
+            LiveWallpaperInfo wallpaper = mWallpapers.get(position);
+            wanted.add(wallpaper.component);
+            mThumbnailLoader.request(wallpaper, ThumbnailLoader.PRIORITY_VISIBLE);
+        }
+        for (int position = start; position <= end; position++) {
+            if (position < first || position > last) {
+                LiveWallpaperInfo wallpaper = mWallpapers.get(position);
+                wanted.add(wallpaper.component);
+                mThumbnailLoader.request(wallpaper, ThumbnailLoader.PRIORITY_PREFETCH);
+            }
         }
-        return list;
+        for (LiveWallpaperInfo wallpaper : mPriorityRows) {
+            wanted.add(wallpaper.component);
+            mThumbnailLoader.request(wallpaper, ThumbnailLoader.PRIORITY_RECENT);
+        }
+        mThumbnailLoader.retainOnly(wanted);
     }
 
-    public int getCount() {
-        if (mWallpapers == null) {
-            return 0;
+    /**
+     * Updates the rows of wallpapers flagged as slow to start, e.g. after one was previewed.
+     */
+    public void onEngineStatsChanged() {
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_ENGINE_STATS);
+    }
+
+    private void onEngineStatsLoaded() {
+        // Rows bound later read the loaded stats; only the bound ones may have to change.
+        for (ComponentName component : mBoundCounts.keySet()) {
+            if (mEngineStats.isSlow(component)) {
+                int position = indexOf(component);
+                if (position >= 0) {
+                    notifyItemChanged(position, PAYLOAD_ENGINE_STATS);
+                }
+            }
         }
-        return mWallpapers.size();
     }
 
-    public Object getItem(int position) {
-        return mWallpapers.get(position);
+    /**
+     * Resolves the labels again for the current locale and re-sorts the list, without parsing the
+     * wallpapers again. The rows are bound again right away for their other localized text.
+     */
+    public void relocalize() {
+        mRepository.relocalize();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
-    public long getItemId(int position) {
-        return position;
+    /**
+     * Returns the wallpaper info of the given row, or null if the row was restored from the
+     * snapshot and its wallpaper has not been parsed.
+     */
+    public WallpaperInfo getWallpaperInfo(LiveWallpaperInfo wallpaper) {
+        return mRepository.getLoadedInfo(wallpaper);
+    }
+
+    @Override
+    public void onCatalogChanged(List<LiveWallpaperInfo> wallpapers) {
+        Map<ComponentName, LiveWallpaperInfo> previous = new HashMap<>();
+        for (LiveWallpaperInfo wallpaper : mCatalog) {
+            previous.put(wallpaper.component, wallpaper);
+        }
+        for (LiveWallpaperInfo wallpaper : wallpapers) {
+            LiveWallpaperInfo old = previous.remove(wallpaper.component);
+            if (old == null || !hasSameText(old, wallpaper)) {
+                // Only new and changed rows are tokenized again.
+                mIndex.add(wallpaper);
+            }
+            if (old != null && !TextUtils.equals(old.label, wallpaper.label)) {
+                // Relabeled, e.g. for a new locale; a placeholder has the old title drawn in.
+                mThumbnailLoader.invalidatePlaceholder(wallpaper.component);
+            }
+        }
+        for (ComponentName component : previous.keySet()) {
+            // Restored from the snapshot, but no longer installed.
+            mIndex.remove(component);
+        }
+        setCatalog(wallpapers);
+        updatePriorityRows();
+
+        // Thumbnails of rows restored from the snapshot could only come from the disk cache;
+        // validated rows can decode the missing ones.
+        for (ComponentName component : mBoundCounts.keySet()) {
+            if (mThumbnailLoader.get(component) == null) {
+                int position = indexOf(component);
+                if (position >= 0) {
+                    notifyItemChanged(position, PAYLOAD_THUMBNAIL);
+                }
+            }
+        }
     }
 
-    public View getView(int position, View convertView, ViewGroup parent) {
-        ViewHolder holder;
-        if (convertView == null) {
-            convertView = mInflater.inflate(R.layout.live_wallpaper_entry, parent, false);
+    @Override
+    public void onWallpaperLoaded(LiveWallpaperInfo wallpaper) {
+        // Nothing on screen changes, so there is no need to rebind the row.
+        replaceRow(wallpaper);
+
+        // The author and description are known now, so the row may match the filter. Only this
+        // row can have changed, so only it is checked.
+        mIndex.add(wallpaper);
+        if (mQuery != null) {
+            boolean matches = mIndex.matches(wallpaper.component, mQuery);
+            int position = Collections.binarySearch(mWallpapers, wallpaper,
+                    LiveWallpaperInfo.ORDER);
+            if (matches && position < 0) {
+                position = -position - 1;
+                mWallpapers.add(position, wallpaper);
+                notifyItemInserted(position);
+            } else if (!matches && position >= 0) {
+                mWallpapers.remove(position);
+                notifyItemRemoved(position);
+            }
+        }
+    }
 
-            holder = new ViewHolder();
-            holder.title = (TextView) convertView.findViewById(R.id.title);
-            holder.thumbnail = (ImageView) convertView.findViewById(R.id.thumbnail);
-            convertView.setTag(holder);
-        } else {
-            holder = (ViewHolder) convertView.getTag();
+    @Override
+    public void onWallpaperRemoved(LiveWallpaperInfo wallpaper) {
+        int position = indexOf(mCatalog, wallpaper);
+        if (position >= 0) {
+            mCatalog.remove(position);
+        }
+        mIndex.remove(wallpaper.component);
+        for (int i = 0; i < mPriorityRows.size(); i++) {
+            if (mPriorityRows.get(i).component.equals(wallpaper.component)) {
+                mPriorityRows.remove(i);
+                break;
+            }
         }
+        position = indexOf(wallpaper);
+        if (position >= 0) {
+            mWallpapers.remove(position);
+            notifyItemRemoved(position);
+        }
+    }
 
-        LiveWallpaperInfo wallpaperInfo = mWallpapers.get(position);
-        if (holder.thumbnail != null) {
-            holder.thumbnail.setImageDrawable(wallpaperInfo.thumbnail);
+    /**
+     * Replaces the row of the same wallpaper in the catalog and in the shown rows. Rows are
+     * found by binary search only, so that a row filtered out costs no scan of the list.
+     */
+    private void replaceRow(LiveWallpaperInfo wallpaper) {
+        int position = indexOf(mCatalog, wallpaper);
+        if (position >= 0) {
+            mCatalog.set(position, wallpaper);
         }
+        position = Collections.binarySearch(mWallpapers, wallpaper, LiveWallpaperInfo.ORDER);
+        if (position >= 0) {
+            mWallpapers.set(position, wallpaper);
+        }
+    }
 
-        if (holder.title != null && wallpaperInfo.info != null) {
-            holder.title.setText(wallpaperInfo.info.loadLabel(mPackageManager));
-            if (holder.thumbnail == null) {
-                holder.title.setCompoundDrawablesWithIntrinsicBounds(null, wallpaperInfo.thumbnail,
-                    null, null);
+    private static boolean hasSameText(LiveWallpaperInfo lhs, LiveWallpaperInfo rhs) {
+        return TextUtils.equals(lhs.label, rhs.label) && TextUtils.equals(lhs.author, rhs.author)
+                && TextUtils.equals(lhs.description, rhs.description);
+    }
+
+    @Override
+    public void onLoadFinished() {
+        if (!mLoading) {
+            return;
+        }
+        mLoading = false;
+        if (mWallpapers.isEmpty()) {
+            // Every wallpaper was skipped; let observers show the empty state.
+            notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public void onPackageChanged(String packageName, List<LiveWallpaperInfo> wallpapers) {
+        mThumbnailLoader.invalidatePackage(packageName);
+
+        // Rows of the package that kept their label still need their thumbnail reloaded.
+        for (LiveWallpaperInfo wallpaper : wallpapers) {
+            int position = indexOf(wallpaper);
+            if (position >= 0) {
+                notifyItemChanged(position);
+            }
+        }
+    }
+
+    private void updatePriorityRows() {
+        List<LiveWallpaperInfo> rows = new ArrayList<>();
+        for (ComponentName component : mRepository.getPriorityComponents()) {
+            int position = indexOf(mCatalog, component);
+            if (position >= 0) {
+                rows.add(mCatalog.get(position));
             }
         }
+        mPriorityRows = rows;
+    }
 
-        return convertView;
+    private void setCatalog(List<LiveWallpaperInfo> catalog) {
+        mCatalog = catalog;
+        setWallpapers(filter(catalog));
     }
 
-    public class LiveWallpaperInfo {
-        public Drawable thumbnail;
-        public WallpaperInfo info;
+    /**
+     * Returns the rows of the given catalog that match the filter, in the same order.
+     */
+    private List<LiveWallpaperInfo> filter(List<LiveWallpaperInfo> catalog) {
+        if (mQuery == null) {
+            return new ArrayList<>(catalog);
+        }
+        Set<ComponentName> matches = mIndex.search(mQuery);
+        List<LiveWallpaperInfo> filtered = new ArrayList<>(matches.size());
+        for (LiveWallpaperInfo wallpaper : catalog) {
+            if (matches.contains(wallpaper.component)) {
+                filtered.add(wallpaper);
+            }
+        }
+        return filtered;
     }
 
-    private class ViewHolder {
-        TextView title;
-        ImageView thumbnail;
+    /**
+     * Shows the given rows instead of the current ones, where both are filtered from the same
+     * catalog. Both are then in the same order, so the changes are found in a single pass rather
+     * than with a diff, which keeps every keystroke cheap even for thousands of rows.
+     */
+    private void dispatchFilterChange(List<LiveWallpaperInfo> oldWallpapers,
+            List<LiveWallpaperInfo> newWallpapers) {
+        mWallpapers = newWallpapers;
+        int oldIndex = 0;
+        int newIndex = 0;
+        int position = 0;
+        while (oldIndex < oldWallpapers.size() || newIndex < newWallpapers.size()) {
+            int removed = 0;
+            while (oldIndex < oldWallpapers.size() && (newIndex == newWallpapers.size()
+                    || LiveWallpaperInfo.ORDER.compare(oldWallpapers.get(oldIndex),
+                            newWallpapers.get(newIndex)) < 0)) {
+                oldIndex++;
+                removed++;
+            }
+            if (removed > 0) {
+                notifyItemRangeRemoved(position, removed);
+            }
+            int inserted = 0;
+            while (newIndex < newWallpapers.size() && (oldIndex == oldWallpapers.size()
+                    || LiveWallpaperInfo.ORDER.compare(oldWallpapers.get(oldIndex),
+                            newWallpapers.get(newIndex)) > 0)) {
+                newIndex++;
+                inserted++;
+            }
+            if (inserted > 0) {
+                notifyItemRangeInserted(position, inserted);
+                position += inserted;
+            }
+            // Skip the rows that stay.
+            while (oldIndex < oldWallpapers.size() && newIndex < newWallpapers.size()
+                    && LiveWallpaperInfo.ORDER.compare(oldWallpapers.get(oldIndex),
+                            newWallpapers.get(newIndex)) == 0) {
+                oldIndex++;
+                newIndex++;
+                position++;
+            }
+        }
     }
 
-    private class LiveWallpaperEnumerator extends
-            AsyncTask<List<ResolveInfo>, LiveWallpaperInfo, Void> {
-        private Context mContext;
-        private int mWallpaperPosition;
+    /**
+     * Shows the given rows instead of the current ones. Both are sorted, so rows only move when
+     * they are relabeled for a new locale, and the diff does not look for moves; those come out
+     * as a removal and an insertion.
+     */
+    private void setWallpapers(final List<LiveWallpaperInfo> newWallpapers) {
+        Trace.beginSection("setWallpapers");
+        final List<LiveWallpaperInfo> oldWallpapers = mWallpapers;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldWallpapers.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newWallpapers.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldWallpapers.get(oldItemPosition).component.equals(
+                        newWallpapers.get(newItemPosition).component);
+            }
 
-        public LiveWallpaperEnumerator(Context context) {
-            super();
-            mContext = context;
-            mWallpaperPosition = 0;
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return TextUtils.equals(oldWallpapers.get(oldItemPosition).label,
+                        newWallpapers.get(newItemPosition).label);
+            }
+        }, false);
+        mWallpapers = newWallpapers;
+        diff.dispatchUpdatesTo(this);
+        Trace.endSection();
+    }
+
+    @Override
+    public void onThumbnailLoaded(LiveWallpaperInfo wallpaper) {
+        int position = indexOf(wallpaper);
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_THUMBNAIL);
         }
+    }
 
-        @Override
-        protected Void doInBackground(List<ResolveInfo>... params) {
-            final PackageManager packageManager = mContext.getPackageManager();
+    @Override
+    public boolean isThumbnailInUse(ComponentName component) {
+        return mBoundCounts.containsKey(component);
+    }
 
-            List<ResolveInfo> list = params[0];
+    /**
+     * Returns the position of the row for the same wallpaper as the given one, or -1 if it is
+     * not in the list.
+     */
+    private int indexOf(LiveWallpaperInfo wallpaper) {
+        return indexOf(mWallpapers, wallpaper);
+    }
 
-            final Resources res = mContext.getResources();
-            BitmapDrawable galleryIcon = (BitmapDrawable) res.getDrawable(
-                    R.drawable.livewallpaper_placeholder);
-            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
-            paint.setTextAlign(Paint.Align.CENTER);
-            Canvas canvas = new Canvas();
+    private int indexOf(ComponentName component) {
+        return indexOf(mWallpapers, component);
+    }
 
-            Collections.sort(list, new Comparator<ResolveInfo>() {
-                final Collator mCollator;
+    private static int indexOf(List<LiveWallpaperInfo> wallpapers,
+            LiveWallpaperInfo wallpaper) {
+        int position = Collections.binarySearch(wallpapers, wallpaper, LiveWallpaperInfo.ORDER);
+        if (position >= 0) {
+            return position;
+        }
+        // The row was sorted under a different locale; fall back to a linear scan.
+        return indexOf(wallpapers, wallpaper.component);
+    }
 
-                {
-                    mCollator = Collator.getInstance();
-                }
+    private static int indexOf(List<LiveWallpaperInfo> wallpapers, ComponentName component) {
+        for (int i = 0; i < wallpapers.size(); i++) {
+            if (wallpapers.get(i).component.equals(component)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-                public int compare(ResolveInfo info1, ResolveInfo info2) {
-                    return mCollator.compare(info1.loadLabel(packageManager),
-                            info2.loadLabel(packageManager));
-                }
-            });
-
-            for (ResolveInfo resolveInfo : list) {
-                WallpaperInfo info = null;
-                try {
-                    info = new WallpaperInfo(mContext, resolveInfo);
-                } catch (XmlPullParserException e) {
-                    Log.w(LOG_TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
-                    continue;
-                } catch (IOException e) {
-                    Log.w(LOG_TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
-                    continue;
-                }
+    @Override
+    public int getItemCount() {
+        if (mWallpapers == null) {
+            return 0;
+        }
+        return mWallpapers.size();
+    }
+
+    /**
+     * Whether there is nothing to show, and either nothing left to load or nothing matching the
+     * filter so far.
+     */
+    public boolean isEmpty() {
+        return mWallpapers.isEmpty() && (!mLoading || mQuery != null);
+    }
+
+    public LiveWallpaperInfo getItem(int position) {
+        return mWallpapers.get(position);
+    }
 
-                LiveWallpaperInfo wallpaper = new LiveWallpaperInfo();
-                wallpaper.info = info;
+    @Override
+    public long getItemId(int position) {
+        ComponentName component = mWallpapers.get(position).component;
+        Long id = mIds.get(component);
+        if (id == null) {
+            id = (long) mIds.size();
+            mIds.put(component, id);
+        }
+        return id;
+    }
 
-                Drawable thumb = info.loadThumbnail(packageManager);
-                if (thumb == null) {
-                    int thumbWidth = res.getDimensionPixelSize(
-                            R.dimen.live_wallpaper_thumbnail_width);
-                    int thumbHeight = res.getDimensionPixelSize(
-                            R.dimen.live_wallpaper_thumbnail_height);
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.live_wallpaper_entry, parent, false));
+    }
 
-                    Bitmap thumbnail = Bitmap.createBitmap(thumbWidth, thumbHeight,
-                            Bitmap.Config.ARGB_8888);
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        LiveWallpaperInfo wallpaperInfo = mWallpapers.get(position);
+        setBoundComponent(holder, wallpaperInfo.component);
 
-                    paint.setColor(res.getColor(R.color.live_wallpaper_thumbnail_background));
-                    canvas.setBitmap(thumbnail);
-                    canvas.drawPaint(paint);
+        BitmapDrawable thumbnail = mThumbnailLoader.get(wallpaperInfo.component);
+        if (thumbnail == null) {
+            mThumbnailLoader.request(wallpaperInfo, ThumbnailLoader.PRIORITY_VISIBLE);
+        }
+        if (holder.thumbnail != null) {
+            holder.thumbnail.setImageDrawable(thumbnail);
+        }
 
-                    galleryIcon.setBounds(0, 0, thumbWidth, thumbHeight);
-                    galleryIcon.setGravity(Gravity.CENTER);
-                    galleryIcon.draw(canvas);
+        if (holder.title != null) {
+            if (payloads.isEmpty()) {
+                holder.title.setText(wallpaperInfo.label);
+            }
+            if (holder.thumbnail == null) {
+                holder.title.setCompoundDrawablesWithIntrinsicBounds(null, thumbnail, null, null);
+            }
+        }
+        if (holder.summary != null) {
+            if (payloads.isEmpty()) {
+                holder.summary.setText(R.string.live_wallpaper_slow_to_start);
+            }
+            holder.summary.setVisibility(mEngineStats.isSlow(wallpaperInfo.component)
+                    ? View.VISIBLE : View.GONE);
+        }
+    }
 
-                    String title = info.loadLabel(packageManager).toString();
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        onBindViewHolder(holder, position, Collections.emptyList());
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        holder.itemView.removeCallbacks(holder.mPressRunnable);
+        // Let go of the thumbnail so that it can be pooled once it leaves the memory cache.
+        setBoundComponent(holder, null);
+        if (holder.thumbnail != null) {
+            holder.thumbnail.setImageDrawable(null);
+        }
+        if (holder.title != null && holder.thumbnail == null) {
+            holder.title.setCompoundDrawablesWithIntrinsicBounds(null, null, null, null);
+        }
+    }
 
-                    paint.setColor(res.getColor(R.color.live_wallpaper_thumbnail_text_color));
-                    paint.setTextSize(
-                            res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_text_size));
+    private void setBoundComponent(ViewHolder holder, ComponentName component) {
+        if (holder.component != null) {
+            int count = mBoundCounts.get(holder.component);
+            if (count > 1) {
+                mBoundCounts.put(holder.component, count - 1);
+            } else {
+                mBoundCounts.remove(holder.component);
+            }
+        }
+        holder.component = component;
+        if (component != null) {
+            Integer count = mBoundCounts.get(component);
+            mBoundCounts.put(component, count == null ? 1 : count + 1);
+        }
+    }
 
-                    canvas.drawText(title, (int) (thumbWidth * 0.5),
-                            thumbHeight - res.getDimensionPixelSize(
-                                    R.dimen.live_wallpaper_thumbnail_text_offset), paint);
+    class ViewHolder extends RecyclerView.ViewHolder
+            implements View.OnClickListener, View.OnTouchListener {
+        final TextView title;
+        final TextView summary;
+        final ImageView thumbnail;
+        ComponentName component;
+        final Runnable mPressRunnable = this::onPressed;
+        private boolean mPressed;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            title = (TextView) itemView.findViewById(R.id.title);
+            summary = (TextView) itemView.findViewById(R.id.summary);
+            thumbnail = (ImageView) itemView.findViewById(R.id.thumbnail);
+            itemView.setOnClickListener(this);
+            itemView.setOnTouchListener(this);
+        }
 
-                    thumb = new BitmapDrawable(res, thumbnail);
-                }
-                wallpaper.thumbnail = thumb;
-                publishProgress(wallpaper);
+        @Override
+        public boolean onTouch(View view, MotionEvent event) {
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    // Most touches start a scroll or a fling, which the list takes over within
+                    // the tap timeout, so only a touch that is still here then counts.
+                    mPressed = false;
+                    view.postDelayed(mPressRunnable, ViewConfiguration.getTapTimeout());
+                    break;
+                case MotionEvent.ACTION_UP:
+                    if (view.removeCallbacks(mPressRunnable)) {
+                        // Tapped quicker than the tap timeout.
+                        onPressed();
+                    }
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    view.removeCallbacks(mPressRunnable);
+                    if (mPressed) {
+                        mPressed = false;
+                        int position = getAdapterPosition();
+                        if (position != RecyclerView.NO_POSITION && mListener != null) {
+                            mListener.onWallpaperPressCancelled(mWallpapers.get(position));
+                        }
+                    }
+                    break;
             }
+            // Let the click and the pressed state be handled as usual.
+            return false;
+        }
 
-            return null;
+        private void onPressed() {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mListener != null) {
+                mPressed = true;
+                mListener.onWallpaperPressed(mWallpapers.get(position));
+            }
         }
 
         @Override
-        protected void onProgressUpdate(LiveWallpaperInfo...infos) {
-            for (LiveWallpaperInfo info : infos) {
-                info.thumbnail.setDither(true);
-                if (mWallpaperPosition < mWallpapers.size()) {
-                    mWallpapers.set(mWallpaperPosition, info);
-                } else {
-                    mWallpapers.add(info);
-                }
-                mWallpaperPosition++;
-                LiveWallpaperListAdapter.this.notifyDataSetChanged();
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mListener != null) {
+                mListener.onWallpaperClick(mWallpapers.get(position));
             }
         }
     }
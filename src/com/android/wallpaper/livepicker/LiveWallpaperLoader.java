@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.app.WallpaperInfo;
+import android.app.WallpaperManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.Trace;
+import android.service.wallpaper.WallpaperService;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the {@link WallpaperInfo} of every live wallpaper service on a small pool of background
+ * threads, so that one slow wallpaper package does not hold up the others. Thumbnails are loaded
+ * separately, on demand, by {@link ThumbnailLoader}.
+ *
+ * <p>The services are sorted by label before any work is scheduled, and every result is
+ * delivered on the main thread as an immutable {@link LiveWallpaperInfo} row. Services that
+ * have not changed since the last {@link CatalogSnapshot} are not parsed at all, and the current
+ * and recently used wallpapers are parsed before the others.
+ */
+class LiveWallpaperLoader {
+    private static final String LOG_TAG = "LiveWallpaperLoader";
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int POOL_SIZE = Math.max(2, Math.min(CPU_COUNT, 4));
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    /** Parses the wallpaper info of a service; replaced by tests that have no real packages. */
+    interface InfoParser {
+        WallpaperInfo parse(Context context, ResolveInfo resolveInfo)
+                throws XmlPullParserException, IOException;
+    }
+
+    private static final InfoParser DEFAULT_PARSER = WallpaperInfo::new;
+    private static volatile InfoParser sInfoParser = DEFAULT_PARSER;
+    private static volatile int sPoolSize = POOL_SIZE;
+
+    interface Callback {
+        /** Called with the rows of the last snapshot, before the services are queried. */
+        void onSnapshotRestored(List<LiveWallpaperInfo> wallpapers);
+
+        /**
+         * Called with placeholder rows in collated order, before any of them is loaded, and with
+         * the wallpapers that are loaded first: the current one, then the recently used ones.
+         */
+        void onWallpapersSorted(List<LiveWallpaperInfo> wallpapers,
+                List<ComponentName> priority);
+
+        /** Called when the wallpaper info of a row has been loaded. */
+        void onWallpaperLoaded(LiveWallpaperInfo wallpaper);
+
+        /** Called when a wallpaper could not be loaded and should be dropped from the list. */
+        void onWallpaperSkipped(LiveWallpaperInfo wallpaper);
+
+        /** Called once every wallpaper has been either loaded or skipped. */
+        void onLoadFinished();
+
+        /** Called with the rows relabeled and re-sorted for the current locale. */
+        void onWallpapersRelocalized(List<LiveWallpaperInfo> wallpapers);
+
+        /**
+         * Called with the loaded rows of every wallpaper currently in the given package, in
+         * collated order. The list is empty if the package was removed or has no wallpapers.
+         */
+        void onPackageLoaded(String packageName, List<LiveWallpaperInfo> wallpapers);
+
+        /** Called once a snapshot asked for with {@link #writeSnapshot} has been written. */
+        void onSnapshotWritten();
+    }
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    private final AtomicInteger mPending = new AtomicInteger();
+    /** Loaded rows of the current load, written to the snapshot when it finishes. */
+    private final Map<ComponentName, LiveWallpaperInfo> mCatalog = new ConcurrentHashMap<>();
+    /** Package versions seen by the current load; only touched by its first task. */
+    private final Map<String, PackageInfo> mPackageInfos = new HashMap<>();
+    private volatile boolean mCancelled;
+
+    LiveWallpaperLoader(Context context, Callback callback) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mCallback = callback;
+        mExecutor = createExecutor(LOG_TAG, new LinkedBlockingQueue<Runnable>());
+    }
+
+    /** Replaces how wallpaper info is parsed, or restores the default if the parser is null. */
+    static void setInfoParserForTesting(InfoParser parser) {
+        sInfoParser = parser != null ? parser : DEFAULT_PARSER;
+    }
+
+    /**
+     * Sets the number of threads of the pools created from now on, e.g. one to load serially,
+     * or restores the default if the size is zero.
+     */
+    static void setPoolSizeForTesting(int size) {
+        sPoolSize = size > 0 ? size : POOL_SIZE;
+    }
+
+    /** Parses the wallpaper info of the given service. May be slow; not for the main thread. */
+    static WallpaperInfo parseWallpaperInfo(Context context, ResolveInfo resolveInfo)
+            throws XmlPullParserException, IOException {
+        return sInfoParser.parse(context, resolveInfo);
+    }
+
+    /**
+     * Returns a pool of {@link #POOL_SIZE} background threads that go away when idle.
+     */
+    static ThreadPoolExecutor createExecutor(final String name, BlockingQueue<Runnable> queue) {
+        int poolSize = sPoolSize;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(() -> {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }, name + " #" + mCount.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts loading every live wallpaper service. Services whose package has not changed since
+     * the last snapshot was written keep their snapshotted metadata; only the others are parsed.
+     * A new snapshot is written once loading has finished.
+     *
+     * @param restore whether to deliver the rows of the snapshot before validating them, for a
+     *         catalog that has nothing to show yet.
+     */
+    void load(final boolean restore) {
+        execute(() -> {
+            if (mCancelled) {
+                return;
+            }
+            final CatalogSnapshot snapshot = CatalogSnapshot.read(mContext);
+            if (restore && snapshot != null) {
+                final List<LiveWallpaperInfo> restored = snapshot.toRows();
+                post(() -> mCallback.onSnapshotRestored(restored));
+            }
+
+            CatalogMetrics metrics = CatalogMetrics.getInstance();
+            long start = System.nanoTime();
+            Trace.beginSection("queryIntentServices");
+            List<ResolveInfo> list = mPackageManager.queryIntentServices(
+                    new Intent(WallpaperService.SERVICE_INTERFACE),
+                    PackageManager.GET_META_DATA);
+            Trace.endSection();
+            final Collator collator = Collator.getInstance();
+            final List<LiveWallpaperInfo> wallpapers = new ArrayList<>(list.size());
+            final List<LiveWallpaperInfo> changed = new ArrayList<>();
+            for (ResolveInfo resolveInfo : list) {
+                String packageName = resolveInfo.serviceInfo.packageName;
+                ComponentName component = new ComponentName(packageName,
+                        resolveInfo.serviceInfo.name);
+                PackageInfo packageInfo = getPackageInfo(packageName);
+                CatalogSnapshot.Entry entry = snapshot != null ? snapshot.get(component) : null;
+                if (entry != null && entry.matches(packageInfo)) {
+                    LiveWallpaperInfo wallpaper = entry.toRow(resolveInfo, collator);
+                    wallpapers.add(wallpaper);
+                    mCatalog.put(component, wallpaper);
+                } else {
+                    LiveWallpaperInfo wallpaper = createPlaceholder(resolveInfo, collator);
+                    wallpapers.add(wallpaper);
+                    changed.add(wallpaper);
+                }
+            }
+            metrics.record(CatalogMetrics.OP_ENUMERATE, start);
+            metrics.setCatalogSize(wallpapers.size());
+
+            start = System.nanoTime();
+            Collections.sort(wallpapers, LiveWallpaperInfo.ORDER);
+            metrics.record(CatalogMetrics.OP_SORT, start);
+            final List<ComponentName> priority = getPriorityComponents();
+            post(() -> mCallback.onWallpapersSorted(wallpapers, priority));
+
+            // The executor runs tasks in the order they are queued, so queue the wallpapers the
+            // user most likely cares about first.
+            Collections.sort(changed, (lhs, rhs) -> {
+                int result = Integer.compare(rank(priority, lhs), rank(priority, rhs));
+                return result != 0 ? result : LiveWallpaperInfo.ORDER.compare(lhs, rhs);
+            });
+
+            // One extra for this task, so that loading finishes even if nothing has changed.
+            mPending.set(changed.size() + 1);
+            for (LiveWallpaperInfo wallpaper : changed) {
+                execute(() -> parse(wallpaper));
+            }
+            finishOne();
+        });
+    }
+
+    /**
+     * Loads the wallpapers of a single package again, e.g. after it was installed, updated or
+     * removed.
+     */
+    void loadPackage(final String packageName) {
+        execute(() -> {
+            if (mCancelled) {
+                return;
+            }
+            Intent intent = new Intent(WallpaperService.SERVICE_INTERFACE)
+                    .setPackage(packageName);
+            List<ResolveInfo> list = mPackageManager.queryIntentServices(intent,
+                    PackageManager.GET_META_DATA);
+            final Collator collator = Collator.getInstance();
+            final List<LiveWallpaperInfo> wallpapers = new ArrayList<>(list.size());
+            for (ResolveInfo resolveInfo : list) {
+                LiveWallpaperInfo wallpaper = createPlaceholder(resolveInfo, collator);
+                WallpaperInfo info = parseInfo(resolveInfo);
+                if (info != null) {
+                    wallpapers.add(withMetadata(wallpaper, info));
+                }
+            }
+            Collections.sort(wallpapers, LiveWallpaperInfo.ORDER);
+            post(() -> mCallback.onPackageLoaded(packageName, wallpapers));
+        });
+    }
+
+    /**
+     * Replaces the snapshot with the given rows, which must be in collated order and loaded or
+     * restored, e.g. after a package was loaded again. The package versions are looked up anew.
+     */
+    void writeSnapshot(final List<LiveWallpaperInfo> wallpapers) {
+        execute(() -> {
+            if (mCancelled) {
+                return;
+            }
+            Map<String, PackageInfo> packageInfos = new HashMap<>();
+            for (LiveWallpaperInfo wallpaper : wallpapers) {
+                getPackageInfo(wallpaper.component.getPackageName(), packageInfos);
+            }
+            CatalogSnapshot.write(mContext, wallpapers, packageInfos);
+            post(mCallback::onSnapshotWritten);
+        });
+    }
+
+    /**
+     * Resolves the labels of the given rows again and re-sorts them for the current locale. The
+     * already parsed wallpaper info and thumbnails are kept.
+     */
+    void relocalize(final List<LiveWallpaperInfo> wallpapers) {
+        execute(() -> {
+            final Collator collator = Collator.getInstance();
+            final List<LiveWallpaperInfo> relabeled = new ArrayList<>(wallpapers.size());
+            for (LiveWallpaperInfo wallpaper : wallpapers) {
+                // Rows restored from the snapshot cannot be relabeled until they are validated.
+                CharSequence label = wallpaper.resolveInfo != null
+                        ? wallpaper.resolveInfo.loadLabel(mPackageManager) : wallpaper.label;
+                relabeled.add(wallpaper.withLabel(label,
+                        collator.getCollationKey(label.toString())));
+            }
+            Collections.sort(relabeled, LiveWallpaperInfo.ORDER);
+            post(() -> mCallback.onWallpapersRelocalized(relabeled));
+        });
+    }
+
+    /**
+     * Stops all outstanding work. No callbacks are delivered after this returns.
+     */
+    void cancel() {
+        mCancelled = true;
+        mExecutor.shutdownNow();
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    private LiveWallpaperInfo createPlaceholder(ResolveInfo resolveInfo, Collator collator) {
+        CharSequence label = resolveInfo.loadLabel(mPackageManager);
+        return LiveWallpaperInfo.placeholder(resolveInfo, label,
+                collator.getCollationKey(label.toString()));
+    }
+
+    private WallpaperInfo parseInfo(ResolveInfo resolveInfo) {
+        ComponentName component = new ComponentName(resolveInfo.serviceInfo.packageName,
+                resolveInfo.serviceInfo.name);
+        TraceHelper.beginAsync(TraceHelper.TRACK_PARSE, component);
+        Trace.beginSection("parseWallpaperInfo");
+        long start = System.nanoTime();
+        try {
+            return parseWallpaperInfo(mContext, resolveInfo);
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
+            return null;
+        } finally {
+            CatalogMetrics.getInstance().record(CatalogMetrics.OP_PARSE, start);
+            Trace.endSection();
+            TraceHelper.endAsync(TraceHelper.TRACK_PARSE, component);
+        }
+    }
+
+    private void parse(LiveWallpaperInfo wallpaper) {
+        if (mCancelled) {
+            return;
+        }
+        final WallpaperInfo info = parseInfo(wallpaper.resolveInfo);
+        if (info == null) {
+            post(() -> mCallback.onWallpaperSkipped(wallpaper));
+            finishOne();
+            return;
+        }
+        final LiveWallpaperInfo loaded = withMetadata(wallpaper, info);
+        mCatalog.put(loaded.component, loaded);
+        post(() -> mCallback.onWallpaperLoaded(loaded));
+        finishOne();
+    }
+
+    private LiveWallpaperInfo withMetadata(LiveWallpaperInfo wallpaper, WallpaperInfo info) {
+        CharSequence author = null;
+        CharSequence description = null;
+        try {
+            author = info.loadAuthor(mPackageManager);
+        } catch (Resources.NotFoundException e) {
+            // The wallpaper does not declare an author.
+        }
+        try {
+            description = info.loadDescription(mPackageManager);
+        } catch (Resources.NotFoundException e) {
+            // The wallpaper does not declare a description.
+        }
+        return wallpaper.withInfo(info, author, description);
+    }
+
+    /**
+     * Returns the current wallpaper, if it is a live one, followed by the recently used ones.
+     */
+    private List<ComponentName> getPriorityComponents() {
+        List<ComponentName> components = new ArrayList<>();
+        try {
+            WallpaperInfo current = WallpaperManager.getInstance(mContext).getWallpaperInfo();
+            if (current != null) {
+                components.add(current.getComponent());
+            }
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Failed getting the current wallpaper", e);
+        }
+        for (ComponentName component : UsageHistory.getInstance(mContext).getRecent()) {
+            if (!components.contains(component)) {
+                components.add(component);
+            }
+        }
+        return components;
+    }
+
+    private static int rank(List<ComponentName> priority, LiveWallpaperInfo wallpaper) {
+        int rank = priority.indexOf(wallpaper.component);
+        return rank >= 0 ? rank : priority.size();
+    }
+
+    private PackageInfo getPackageInfo(String packageName) {
+        return getPackageInfo(packageName, mPackageInfos);
+    }
+
+    private PackageInfo getPackageInfo(String packageName, Map<String, PackageInfo> cache) {
+        if (cache.containsKey(packageName)) {
+            return cache.get(packageName);
+        }
+        PackageInfo packageInfo = null;
+        try {
+            packageInfo = mPackageManager.getPackageInfo(packageName, 0);
+        } catch (NameNotFoundException e) {
+            // Removed since the query; its services are parsed, and skipped, as usual.
+        }
+        cache.put(packageName, packageInfo);
+        return packageInfo;
+    }
+
+    private void finishOne() {
+        if (mPending.decrementAndGet() <= 0) {
+            if (!mCancelled) {
+                List<LiveWallpaperInfo> wallpapers = new ArrayList<>(mCatalog.values());
+                Collections.sort(wallpapers, LiveWallpaperInfo.ORDER);
+                CatalogSnapshot.write(mContext, wallpapers, mPackageInfos);
+            }
+            post(mCallback::onLoadFinished);
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Only happens once the loader has been cancelled.
+        }
+    }
+
+    private void post(final Runnable callback) {
+        mHandler.post(() -> {
+            if (!mCancelled) {
+                callback.run();
+            }
+        });
+    }
+}
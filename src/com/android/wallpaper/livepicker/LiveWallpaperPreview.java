@@ -30,10 +30,15 @@ import android.content.pm.PackageManager;
 import android.content.res.Resources.NotFoundException;
 import android.graphics.Rect;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.service.wallpaper.IWallpaperConnection;
 import android.service.wallpaper.IWallpaperEngine;
 import android.service.wallpaper.IWallpaperService;
@@ -57,10 +62,16 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 import android.widget.Toolbar;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 public class LiveWallpaperPreview extends Activity {
     static final String EXTRA_LIVE_WALLPAPER_INFO = "android.live_wallpaper.info";
+    /** Optional label, author and description already resolved by the caller. */
+    static final String EXTRA_LIVE_WALLPAPER_LABEL = "android.live_wallpaper.label";
+    static final String EXTRA_LIVE_WALLPAPER_AUTHOR = "android.live_wallpaper.author";
+    static final String EXTRA_LIVE_WALLPAPER_DESCRIPTION = "android.live_wallpaper.description";
 
     private static final String LOG_TAG = "LiveWallpaperPreview";
 
@@ -81,10 +92,28 @@ public class LiveWallpaperPreview extends Activity {
     private View mBottomSheet;
     private View mSpacer;
     private View mLoading;
+    private View mLoadingProgress;
+    private View mLoadingError;
+    private AttributionTask mAttributionTask;
+    private ApplyTask mApplyTask;
+    private Button mSetWallpaperButton;
+    private final TouchForwarder mTouchForwarder = new TouchForwarder();
+    /** Samples the process of the wallpaper engine last attached, for dumpsys. */
+    private volatile ProcessSampler mProcessSampler;
+    private final Handler mHandler = new Handler();
+    private final Runnable mReleaseEngineRunnable = this::releaseEngine;
+    private boolean mResumed;
+    private boolean mEngineReleased;
+    private boolean mReleaseEnginePending;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mApplyTask = (ApplyTask) getLastNonConfigurationInstance();
+        if (mApplyTask != null) {
+            // Still setting the wallpaper for the instance this one replaced.
+            mApplyTask.attach(this);
+        }
         init();
     }
 
@@ -112,11 +141,14 @@ public class LiveWallpaperPreview extends Activity {
         mBottomSheet = findViewById(R.id.bottom_sheet);
         mSpacer = findViewById(R.id.spacer);
         mLoading = findViewById(R.id.loading);
+        mLoadingProgress = findViewById(R.id.loading_progress);
+        mLoadingError = findViewById(R.id.loading_error);
 
         mSettings = info.getSettingsActivity();
         mPackageName = info.getPackageName();
         mWallpaperIntent = new Intent(WallpaperService.SERVICE_INTERFACE)
                 .setClassName(info.getPackageName(), info.getServiceName());
+        UsageHistory.getInstance(this).record(info.getComponent());
 
         setActionBar((Toolbar) findViewById(R.id.toolbar));
         getActionBar().setDisplayHomeAsUpEnabled(true);
@@ -126,6 +158,11 @@ public class LiveWallpaperPreview extends Activity {
         mWallpaperConnection = new WallpaperConnection(mWallpaperIntent);
 
         populateAttributionPane(info);
+
+        if (getWindow().getDecorView().isAttachedToWindow()) {
+            // Initialized after the window was shown, e.g. by LiveWallpaperChange.
+            connectWallpaper();
+        }
     }
 
     private void populateAttributionPane(WallpaperInfo info) {
@@ -189,79 +226,117 @@ public class LiveWallpaperPreview extends Activity {
                     + " tempus, ac aliquet lectus volutpat.");
             mAttributionExploreButton.setText("Explore");
         } else {
-            PackageManager pm = getPackageManager();
-
-            CharSequence title = info.loadLabel(pm);
-            if (!TextUtils.isEmpty(title)) {
-                mAttributionTitle.setText(title);
-            } else {
-                mAttributionTitle.setVisibility(View.GONE);
+            // Show whatever the list already resolved right away, and load the rest from the
+            // wallpaper's package in the background.
+            Bundle extras = getIntent().getExtras();
+            Attribution attribution = null;
+            if (extras != null && extras.containsKey(EXTRA_LIVE_WALLPAPER_LABEL)) {
+                attribution = new Attribution();
+                attribution.title = extras.getCharSequence(EXTRA_LIVE_WALLPAPER_LABEL);
+                attribution.author = extras.getCharSequence(EXTRA_LIVE_WALLPAPER_AUTHOR);
+                attribution.description = extras.getCharSequence(
+                        EXTRA_LIVE_WALLPAPER_DESCRIPTION);
+                bindAttributionText(attribution);
             }
+            // Keep the space of the explore button until it is known whether there is one.
+            mAttributionExploreButton.setVisibility(View.INVISIBLE);
+            mAttributionTask = new AttributionTask(info, attribution);
+            mAttributionTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
 
-            try {
-                CharSequence author = info.loadAuthor(pm);
-                if (TextUtils.isEmpty(author)) {
-                    throw new NotFoundException();
-                }
-                mAttributionSubtitle1.setText(author);
-            } catch (NotFoundException e) {
-                mAttributionSubtitle1.setVisibility(View.GONE);
-            }
+    private void bindAttributionText(Attribution attribution) {
+        bindText(mAttributionTitle, attribution.title);
+        bindText(mAttributionSubtitle1, attribution.author);
+        bindText(mAttributionSubtitle2, attribution.description);
+    }
 
-            try {
-                CharSequence description = info.loadDescription(pm);
-                if (TextUtils.isEmpty(description)) {
-                    throw new NotFoundException();
-                }
-                mAttributionSubtitle2.setText(description);
-            } catch (NotFoundException e) {
-                mAttributionSubtitle2.setVisibility(View.GONE);
-            }
+    private void bindText(TextView view, CharSequence text) {
+        if (!TextUtils.isEmpty(text)) {
+            view.setText(text);
+            view.setVisibility(View.VISIBLE);
+        } else {
+            view.setVisibility(View.GONE);
+        }
+    }
 
-            try {
-                Uri contextUri = info.loadContextUri(pm);
-                CharSequence contextDescription = info.loadContextDescription(pm);
-                if (contextUri == null) {
-                    throw new NotFoundException();
+    private void bindAttribution(Attribution attribution) {
+        bindAttributionText(attribution);
+
+        final Uri contextUri = attribution.contextUri;
+        if (contextUri != null) {
+            mAttributionExploreButton.setText(attribution.contextDescription);
+            mAttributionExploreButton.setVisibility(View.VISIBLE);
+            mAttributionExploreButton.setOnClickListener(v -> {
+                Intent intent = new Intent(Intent.ACTION_VIEW, contextUri);
+                intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                try {
+                    startActivity(intent);
+                } catch (ActivityNotFoundException e) {
+                    Log.e(LOG_TAG, "Couldn't find activity for context link.", e);
                 }
-                mAttributionExploreButton.setText(contextDescription);
-                mAttributionExploreButton.setOnClickListener(v -> {
-                    Intent intent = new Intent(Intent.ACTION_VIEW, contextUri);
-                    intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                    try {
-                        startActivity(intent);
-                    } catch (ActivityNotFoundException e) {
-                        Log.e(LOG_TAG, "Couldn't find activity for context link.", e);
-                    }
-                });
-            } catch (NotFoundException e) {
-                mAttributionExploreButton.setVisibility(View.GONE);
-                mSpacer.setVisibility(View.VISIBLE);
+            });
+        } else {
+            mAttributionExploreButton.setVisibility(View.GONE);
+            mSpacer.setVisibility(View.VISIBLE);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mAttributionTask != null) {
+            mAttributionTask.cancel(false);
+            mAttributionTask = null;
+        }
+        if (mApplyTask != null) {
+            if (isFinishing()) {
+                // Gone for good; nothing is set unless the component has been already.
+                mApplyTask.cancelBeforeCommit();
             }
+            // Otherwise left to run to completion for the instance that replaces this one.
+            mApplyTask.detach(this);
+            mApplyTask = null;
         }
+    }
 
+    @Override
+    public void onBackPressed() {
+        if (mApplyTask != null) {
+            if (!mApplyTask.cancelBeforeCommit()) {
+                // The wallpaper is being set; the activity finishes with the result once it is.
+                return;
+            }
+            mApplyTask = null;
+            updateSetWallpaperButton();
+        }
+        super.onBackPressed();
+    }
 
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        // The new instance reports the result of a wallpaper still being set.
+        return mApplyTask;
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_preview, menu);
         menu.findItem(R.id.configure).setVisible(mSettings != null);
-        menu.findItem(R.id.set_wallpaper).getActionView().setOnClickListener(
-                this::setLiveWallpaper);
+        mSetWallpaperButton = (Button) menu.findItem(R.id.set_wallpaper).getActionView();
+        mSetWallpaperButton.setOnClickListener(this::setLiveWallpaper);
+        updateSetWallpaperButton();
         return super.onCreateOptionsMenu(menu);
     }
 
     public void setLiveWallpaper(final View v) {
+        if (mApplyTask != null) {
+            // Already being set; ignore repeated taps.
+            return;
+        }
         if (mWallpaperManager.getWallpaperId(WallpaperManager.FLAG_LOCK) < 0) {
             // The lock screen does not have a wallpaper, so no need to prompt; can only set both.
-            try {
-                setLiveWallpaper(v.getRootView().getWindowToken());
-                setResult(RESULT_OK);
-            } catch (RuntimeException e) {
-                Log.w(LOG_TAG, "Failure setting wallpaper", e);
-            }
-            finish();
+            applyWallpaper(false);
         } else {
             // Otherwise, prompt to either set on home or both home and lock screen.
             Context themedContext = new ContextThemeWrapper(this, android.R.style.Theme_DeviceDefault_Settings);
@@ -270,28 +345,35 @@ public class LiveWallpaperPreview extends Activity {
                     .setAdapter(new WallpaperTargetAdapter(themedContext), new DialogInterface.OnClickListener() {
                         @Override
                         public void onClick(DialogInterface dialog, int which) {
-                            try {
-                                setLiveWallpaper(v.getRootView().getWindowToken());
-                                if (which == 1) {
-                                    // "Home screen and lock screen"; clear the lock screen so it
-                                    // shows through to the live wallpaper on home.
-                                    mWallpaperManager.clear(WallpaperManager.FLAG_LOCK);
-                                }
-                                setResult(RESULT_OK);
-                            } catch (RuntimeException|IOException e) {
-                                Log.w(LOG_TAG, "Failure setting wallpaper", e);
-                            }
-                            finish();
+                            // "Home screen and lock screen"; clear the lock screen so it
+                            // shows through to the live wallpaper on home.
+                            applyWallpaper(which == 1);
                         }
                     })
                     .show();
         }
     }
 
-    private void setLiveWallpaper(IBinder windowToken) {
-        mWallpaperManager.setWallpaperComponent(mWallpaperIntent.getComponent());
-        mWallpaperManager.setWallpaperOffsetSteps(0.5f, 0.0f);
-        mWallpaperManager.setWallpaperOffsets(windowToken, 0.5f, 0.0f);
+    /**
+     * Sets the wallpaper in the background, since the calls into the wallpaper manager can
+     * block on disk I/O in the system server. The activity finishes when it is done.
+     */
+    private void applyWallpaper(boolean clearLock) {
+        if (mApplyTask != null || isFinishing() || isDestroyed()) {
+            return;
+        }
+        mApplyTask = new ApplyTask(this, mWallpaperIntent.getComponent(), clearLock);
+        mApplyTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        updateSetWallpaperButton();
+    }
+
+    private void updateSetWallpaperButton() {
+        if (mSetWallpaperButton != null) {
+            boolean applying = mApplyTask != null;
+            mSetWallpaperButton.setEnabled(!applying);
+            mSetWallpaperButton.setText(applying
+                    ? R.string.set_live_wallpaper_progress : R.string.set_live_wallpaper);
+        }
     }
 
     @Override
@@ -313,10 +395,30 @@ public class LiveWallpaperPreview extends Activity {
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mEngineReleased) {
+            // Get the service starting again while the window is coming back.
+            WallpaperPrebinder.getInstance().prebind(this, mWallpaperIntent.getComponent());
+        }
+    }
+
     @Override
     public void onResume() {
         super.onResume();
-        if (mWallpaperConnection != null && mWallpaperConnection.mEngine != null) {
+        mResumed = true;
+        cancelPendingRelease();
+        if (mEngineReleased) {
+            mEngineReleased = false;
+            mLoading.animate().cancel();
+            mLoading.setAlpha(1f);
+            mLoading.setVisibility(View.VISIBLE);
+            mLoadingProgress.setVisibility(View.VISIBLE);
+            mLoadingError.setVisibility(View.GONE);
+            mWallpaperConnection = new WallpaperConnection(mWallpaperIntent);
+            connectWallpaper();
+        } else if (mWallpaperConnection != null && mWallpaperConnection.mEngine != null) {
             try {
                 mWallpaperConnection.mEngine.setVisibility(true);
             } catch (RemoteException e) {
@@ -328,6 +430,7 @@ public class LiveWallpaperPreview extends Activity {
     @Override
     public void onPause() {
         super.onPause();
+        mResumed = false;
         if (mWallpaperConnection != null && mWallpaperConnection.mEngine != null) {
             try {
                 mWallpaperConnection.mEngine.setVisibility(false);
@@ -337,13 +440,92 @@ public class LiveWallpaperPreview extends Activity {
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mResumed) {
+            return;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            // The process is on the list of cached ones to kill; let go right away.
+            releaseEngine();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN && !mReleaseEnginePending) {
+            // Give the user a moment to come back before paying for a new engine. Repeated
+            // callbacks must not keep pushing the release back.
+            mReleaseEnginePending = true;
+            mHandler.postDelayed(mReleaseEngineRunnable, getResources().getInteger(
+                    R.integer.live_wallpaper_preview_release_delay_ms));
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (!mResumed) {
+            releaseEngine();
+        }
+    }
+
+    private void cancelPendingRelease() {
+        mReleaseEnginePending = false;
+        mHandler.removeCallbacks(mReleaseEngineRunnable);
+    }
+
+    /**
+     * Destroys the hidden preview engine and unbinds its service, so the wallpaper's process can
+     * be reclaimed. The engine is connected again in {@link #onResume()}.
+     */
+    private void releaseEngine() {
+        cancelPendingRelease();
+        if (mWallpaperConnection == null || isDestroyed()) {
+            return;
+        }
+        mWallpaperConnection.disconnect();
+        mWallpaperConnection = null;
+        mTouchForwarder.cancel();
+        mEngineReleased = true;
+    }
+
+    /**
+     * Gives up on a wallpaper whose engine did not get through a step of starting in time, so
+     * that the preview does not show the loading spinner forever. The engine is connected again
+     * if the preview is left and resumed.
+     */
+    private void onConnectionTimedOut(WallpaperConnection connection, String step) {
+        if (mWallpaperConnection != connection || isDestroyed()) {
+            return;
+        }
+        if (!mResumed) {
+            // A hidden engine may not draw at all; try again once the preview is back.
+            releaseEngine();
+            return;
+        }
+        ComponentName component = mWallpaperIntent.getComponent();
+        Log.w(LOG_TAG, "Wallpaper " + component + " did not " + step + " in time; giving up");
+        EngineStats.getInstance(this).recordFailure(component);
+        releaseEngine();
+        mLoading.animate().cancel();
+        mLoading.setAlpha(1f);
+        mLoading.setVisibility(View.VISIBLE);
+        mLoadingProgress.setVisibility(View.GONE);
+        mLoadingError.setVisibility(View.VISIBLE);
+    }
+
     @Override
     public void onAttachedToWindow() {
         super.onAttachedToWindow();
+        if (mApplyTask != null) {
+            // Takes the offsets from this window, now that it has a token.
+            mApplyTask.attach(this);
+        }
+        connectWallpaper();
+    }
 
+    private void connectWallpaper() {
         getWindow().getDecorView().post(new Runnable() {
             public void run() {
-                if (!mWallpaperConnection.connect()) {
+                // Not set yet if the wallpaper is still being resolved.
+                if (mWallpaperConnection != null && !mWallpaperConnection.connect()) {
                     mWallpaperConnection = null;
                 }
             }
@@ -358,16 +540,13 @@ public class LiveWallpaperPreview extends Activity {
             mWallpaperConnection.disconnect();
         }
         mWallpaperConnection = null;
+        mTouchForwarder.cancel();
     }
 
     @Override
     public boolean dispatchTouchEvent(MotionEvent ev) {
         if (mWallpaperConnection != null && mWallpaperConnection.mEngine != null) {
-            MotionEvent dup = MotionEvent.obtainNoHistory(ev);
-            try {
-                mWallpaperConnection.mEngine.dispatchPointer(dup);
-            } catch (RemoteException e) {
-            }
+            mTouchForwarder.forward(ev, mWallpaperConnection.mEngine);
         }
         
         if (ev.getAction() == MotionEvent.ACTION_DOWN) {
@@ -397,19 +576,87 @@ public class LiveWallpaperPreview extends Activity {
         return handled;
     }
     
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        PreviewMetrics.getInstance().dump(prefix, writer);
+        EngineStats.getInstance(this).dump(prefix, writer);
+        mTouchForwarder.dump(prefix, writer);
+        ProcessSampler sampler = mProcessSampler;
+        if (sampler != null) {
+            sampler.dump(prefix, writer);
+        }
+    }
+
     class WallpaperConnection extends IWallpaperConnection.Stub implements ServiceConnection {
         final Intent mIntent;
         IWallpaperService mService;
         IWallpaperEngine mEngine;
+        WallpaperPrebinder.Binding mBinding;
         boolean mConnected;
 
+        // Uptime at which each phase of the connection ended, for PreviewMetrics.
+        volatile long mConnectTime;
+        volatile long mServiceConnectedTime;
+        volatile long mEngineAttachedTime;
+
+        // Gives up on the wallpaper when the step it is waiting for does not end in time.
+        volatile String mWatchdogStep;
+        final Runnable mWatchdog = () -> onConnectionTimedOut(this, mWatchdogStep);
+
         WallpaperConnection(Intent intent) {
             mIntent = intent;
         }
 
+        private void armWatchdog(String step, int timeoutResId) {
+            mHandler.removeCallbacks(mWatchdog);
+            mWatchdogStep = step;
+            mHandler.postDelayed(mWatchdog, getResources().getInteger(timeoutResId));
+        }
+
+        private void disarmWatchdog() {
+            mHandler.removeCallbacks(mWatchdog);
+        }
+
+        /** Starts sampling the cost of the process the engine runs in, until disconnected. */
+        private void startSampling(int pid) {
+            ProcessSampler sampler = mProcessSampler;
+            if (sampler != null) {
+                sampler.stop();
+            }
+            sampler = new ProcessSampler(pid, mIntent.getComponent().flattenToShortString());
+            mProcessSampler = sampler;
+            sampler.start();
+        }
+
+        private void recordPhase(int phase, long start, long end) {
+            if (start > 0) {
+                PreviewMetrics.getInstance().record(mIntent.getComponent(), phase, end - start,
+                        end);
+            }
+        }
+
         public boolean connect() {
             synchronized (this) {
-                if (!bindService(mIntent, this, Context.BIND_AUTO_CREATE)) {
+                if (mConnected) {
+                    return true;
+                }
+                mConnectTime = SystemClock.uptimeMillis();
+                TraceHelper.beginAsync(TraceHelper.TRACK_PREVIEW, mIntent.getComponent());
+                armWatchdog("bind", R.integer.live_wallpaper_bind_timeout_ms);
+                // Take over the binding started when the wallpaper was pressed in the list.
+                mBinding = WallpaperPrebinder.getInstance().claim(mIntent.getComponent());
+                if (mBinding != null) {
+                    mConnected = true;
+                    mBinding.setClient(this);
+                    return true;
+                }
+                Trace.beginSection("bindWallpaperService");
+                boolean bound = bindService(mIntent, this, Context.BIND_AUTO_CREATE);
+                Trace.endSection();
+                if (!bound) {
+                    disarmWatchdog();
+                    TraceHelper.endAsync(TraceHelper.TRACK_PREVIEW, mIntent.getComponent());
                     return false;
                 }
 
@@ -421,6 +668,16 @@ public class LiveWallpaperPreview extends Activity {
         public void disconnect() {
             synchronized (this) {
                 mConnected = false;
+                disarmWatchdog();
+                ProcessSampler sampler = mProcessSampler;
+                if (sampler != null) {
+                    sampler.stop();
+                }
+                if (mConnectTime > 0) {
+                    // Gone before the first frame was shown.
+                    TraceHelper.endAsync(TraceHelper.TRACK_PREVIEW, mIntent.getComponent());
+                    mConnectTime = 0;
+                }
                 if (mEngine != null) {
                     try {
                         mEngine.destroy();
@@ -429,22 +686,35 @@ public class LiveWallpaperPreview extends Activity {
                     }
                     mEngine = null;
                 }
-                unbindService(this);
+                if (mBinding != null) {
+                    mBinding.release();
+                    mBinding = null;
+                } else {
+                    unbindService(this);
+                }
                 mService = null;
             }
         }
         
         public void onServiceConnected(ComponentName name, IBinder service) {
             if (mWallpaperConnection == this) {
+                mServiceConnectedTime = SystemClock.uptimeMillis();
+                recordPhase(PreviewMetrics.PHASE_BIND, mConnectTime, mServiceConnectedTime);
                 mService = IWallpaperService.Stub.asInterface(service);
+                armWatchdog("attach its engine", R.integer.live_wallpaper_attach_timeout_ms);
+                Trace.beginSection("attachWallpaper");
                 try {
                     final View root = getWindow().getDecorView();
                     mService.attach(this, root.getWindowToken(),
                             LayoutParams.TYPE_APPLICATION_MEDIA,
                             true, root.getWidth(), root.getHeight(),
                             new Rect(0, 0, 0, 0));
+                    recordPhase(PreviewMetrics.PHASE_ATTACH, mServiceConnectedTime,
+                            SystemClock.uptimeMillis());
                 } catch (RemoteException e) {
                     Log.w(LOG_TAG, "Failed attaching wallpaper; clearing", e);
+                } finally {
+                    Trace.endSection();
                 }
             }
         }
@@ -460,7 +730,12 @@ public class LiveWallpaperPreview extends Activity {
         public void attachEngine(IWallpaperEngine engine) {
             synchronized (this) {
                 if (mConnected) {
+                    mEngineAttachedTime = SystemClock.uptimeMillis();
+                    recordPhase(PreviewMetrics.PHASE_ENGINE, mServiceConnectedTime,
+                            mEngineAttachedTime);
+                    armWatchdog("show its first frame", R.integer.live_wallpaper_shown_timeout_ms);
                     mEngine = engine;
+                    startSampling(Binder.getCallingPid());
                     try {
                         engine.setVisibility(true);
                     } catch (RemoteException e) {
@@ -482,6 +757,20 @@ public class LiveWallpaperPreview extends Activity {
 
         @Override
         public void engineShown(IWallpaperEngine engine) throws RemoteException {
+            synchronized (this) {
+                long now = SystemClock.uptimeMillis();
+                recordPhase(PreviewMetrics.PHASE_SHOWN, mEngineAttachedTime, now);
+                recordPhase(PreviewMetrics.PHASE_TOTAL, mConnectTime, now);
+                if (mConnectTime > 0) {
+                    disarmWatchdog();
+                    EngineStats.getInstance(LiveWallpaperPreview.this).recordStartup(
+                            mIntent.getComponent(), now - mConnectTime);
+                    TraceHelper.endAsync(TraceHelper.TRACK_PREVIEW, mIntent.getComponent());
+                }
+                // Only the first frame after connecting counts.
+                mEngineAttachedTime = 0;
+                mConnectTime = 0;
+            }
             mLoading.post(() -> {
                 mLoading.animate()
                         .alpha(0f)
@@ -493,6 +782,168 @@ public class LiveWallpaperPreview extends Activity {
         }
     }
 
+    /** Metadata shown in the attribution pane. */
+    private static class Attribution {
+        CharSequence title;
+        CharSequence author;
+        CharSequence description;
+        Uri contextUri;
+        CharSequence contextDescription;
+    }
+
+    /**
+     * Loads the attribution metadata from the wallpaper's package, which means loading its
+     * resources, so that it does not hold up binding the wallpaper.
+     */
+    private class AttributionTask extends AsyncTask<Void, Void, Attribution> {
+        private final WallpaperInfo mInfo;
+        private final Attribution mKnown;
+
+        /**
+         * @param known the metadata already resolved by the caller, or null to load all of it.
+         */
+        AttributionTask(WallpaperInfo info, Attribution known) {
+            mInfo = info;
+            mKnown = known;
+        }
+
+        @Override
+        protected Attribution doInBackground(Void... params) {
+            PackageManager pm = getPackageManager();
+            Attribution attribution = mKnown != null ? mKnown : new Attribution();
+            if (mKnown == null) {
+                attribution.title = mInfo.loadLabel(pm);
+                try {
+                    attribution.author = mInfo.loadAuthor(pm);
+                } catch (NotFoundException e) {
+                    // No author.
+                }
+                try {
+                    attribution.description = mInfo.loadDescription(pm);
+                } catch (NotFoundException e) {
+                    // No description.
+                }
+            }
+            try {
+                attribution.contextUri = mInfo.loadContextUri(pm);
+                attribution.contextDescription = mInfo.loadContextDescription(pm);
+            } catch (NotFoundException e) {
+                attribution.contextUri = null;
+            }
+            return attribution;
+        }
+
+        @Override
+        protected void onPostExecute(Attribution attribution) {
+            mAttributionTask = null;
+            if (!isDestroyed()) {
+                bindAttribution(attribution);
+            }
+        }
+    }
+
+    /**
+     * Sets the wallpaper, and clears the lock screen wallpaper if asked to, recording how long
+     * every step takes. It can be cancelled until the component is set; from then on it runs to
+     * completion, since the steps cannot be undone, and reports to whichever instance of the
+     * activity is current when it is done.
+     */
+    private static class ApplyTask extends AsyncTask<Void, Void, Boolean> {
+        private final Context mContext;
+        private final WallpaperManager mWallpaperManager;
+        private final ComponentName mComponent;
+        private final boolean mClearLock;
+        private LiveWallpaperPreview mActivity;
+        /** Token of the window of the attached activity, or null while it has none. */
+        private volatile IBinder mWindowToken;
+        /** Whether the component is being set, guarded by this. */
+        private boolean mCommitted;
+
+        ApplyTask(LiveWallpaperPreview activity, ComponentName component, boolean clearLock) {
+            mContext = activity.getApplicationContext();
+            mWallpaperManager = WallpaperManager.getInstance(mContext);
+            mComponent = component;
+            mClearLock = clearLock;
+            attach(activity);
+        }
+
+        void attach(LiveWallpaperPreview activity) {
+            mActivity = activity;
+            // Null until the window of a recreated activity is attached.
+            View decor = activity.getWindow().peekDecorView();
+            mWindowToken = decor != null ? decor.getWindowToken() : null;
+        }
+
+        void detach(LiveWallpaperPreview activity) {
+            if (mActivity == activity) {
+                mActivity = null;
+                mWindowToken = null;
+            }
+        }
+
+        /**
+         * Cancels the task unless it has started setting the component. Returns whether it was
+         * cancelled.
+         */
+        synchronized boolean cancelBeforeCommit() {
+            if (mCommitted) {
+                return false;
+            }
+            cancel(false);
+            return true;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            synchronized (this) {
+                if (isCancelled()) {
+                    return false;
+                }
+                mCommitted = true;
+            }
+            try {
+                long start = SystemClock.uptimeMillis();
+                mWallpaperManager.setWallpaperComponent(mComponent);
+                start = recordStep(PreviewMetrics.PHASE_APPLY_COMPONENT, start);
+                UsageHistory.getInstance(mContext).record(mComponent);
+                mWallpaperManager.setWallpaperOffsetSteps(0.5f, 0.0f);
+                IBinder windowToken = mWindowToken;
+                if (windowToken != null) {
+                    // Otherwise between instances; the next window to show sets its own offsets.
+                    mWallpaperManager.setWallpaperOffsets(windowToken, 0.5f, 0.0f);
+                }
+                start = recordStep(PreviewMetrics.PHASE_APPLY_OFFSETS, start);
+                if (mClearLock) {
+                    mWallpaperManager.clear(WallpaperManager.FLAG_LOCK);
+                    recordStep(PreviewMetrics.PHASE_APPLY_CLEAR_LOCK, start);
+                }
+                return true;
+            } catch (RuntimeException|IOException e) {
+                Log.w(LOG_TAG, "Failure setting wallpaper", e);
+                return false;
+            }
+        }
+
+        private long recordStep(int phase, long start) {
+            long end = SystemClock.uptimeMillis();
+            PreviewMetrics.getInstance().record(mComponent, phase, end - start, end);
+            return end;
+        }
+
+        @Override
+        protected void onPostExecute(Boolean applied) {
+            if (mActivity == null) {
+                // Finished by other means while the wallpaper was being set.
+                return;
+            }
+            mActivity.mApplyTask = null;
+            if (applied) {
+                mActivity.setResult(RESULT_OK);
+            }
+            mActivity.finish();
+        }
+    }
+
     private static class WallpaperTargetAdapter extends ArrayAdapter<CharSequence> {
 
         public WallpaperTargetAdapter(Context context) {
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.view.Gravity;
+
+/**
+ * Renders the thumbnail of wallpapers that do not provide one: the placeholder icon on a plain
+ * background, with the wallpaper's title drawn on top. The background and icon are rendered
+ * once into a template that is copied for every wallpaper.
+ */
+class PlaceholderRenderer {
+    private final BitmapPool mPool;
+    private final Bitmap mTemplate;
+    private final Paint mTextPaint;
+    private final Canvas mCanvas = new Canvas();
+    private final float mTextX;
+    private final float mTextY;
+
+    PlaceholderRenderer(Resources res, BitmapPool pool, int width, int height) {
+        mPool = pool;
+
+        mTemplate = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCanvas.setBitmap(mTemplate);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+        paint.setColor(res.getColor(R.color.live_wallpaper_thumbnail_background));
+        mCanvas.drawPaint(paint);
+
+        BitmapDrawable galleryIcon = (BitmapDrawable) res.getDrawable(
+                R.drawable.livewallpaper_placeholder);
+        galleryIcon.setBounds(0, 0, width, height);
+        galleryIcon.setGravity(Gravity.CENTER);
+        galleryIcon.draw(mCanvas);
+        mCanvas.setBitmap(null);
+
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mTextPaint.setColor(res.getColor(R.color.live_wallpaper_thumbnail_text_color));
+        mTextPaint.setTextSize(
+                res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_text_size));
+        mTextX = (int) (width * 0.5);
+        mTextY = height - res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_text_offset);
+    }
+
+    /**
+     * Returns a placeholder thumbnail with the given title. The bitmap comes from the pool and
+     * may be released back to it once it is no longer shown.
+     */
+    synchronized Bitmap render(CharSequence title) {
+        Bitmap thumbnail = mPool.acquire(mTemplate.getWidth(), mTemplate.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        mCanvas.setBitmap(thumbnail);
+        mCanvas.drawBitmap(mTemplate, 0, 0, null);
+        mCanvas.drawText(title.toString(), mTextX, mTextY, mTextPaint);
+        mCanvas.setBitmap(null);
+        return thumbnail;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Process-wide latencies of the phases of connecting a wallpaper preview and of setting the
+ * wallpaper, kept per wallpaper component and printed by {@code dumpsys activity}.
+ *
+ * <p>All storage is allocated up front: the latest samples go into a fixed-size ring buffer, and
+ * every sample is also counted into a fixed-size histogram of its component. Recording a sample
+ * never allocates, so it is safe to do from the binder callbacks of the connection.
+ */
+class PreviewMetrics {
+    /** From starting to connect until the wallpaper service is connected. */
+    static final int PHASE_BIND = 0;
+    /** Duration of the call that asks the service to attach an engine. */
+    static final int PHASE_ATTACH = 1;
+    /** From the service being connected until its engine is attached. */
+    static final int PHASE_ENGINE = 2;
+    /** From the engine being attached until it has shown its first frame. */
+    static final int PHASE_SHOWN = 3;
+    /** From starting to connect until the engine has shown its first frame. */
+    static final int PHASE_TOTAL = 4;
+    /** Setting the wallpaper component. */
+    static final int PHASE_APPLY_COMPONENT = 5;
+    /** Setting the wallpaper offsets after the component was set. */
+    static final int PHASE_APPLY_OFFSETS = 6;
+    /** Clearing the lock screen wallpaper, when setting the wallpaper on both screens. */
+    static final int PHASE_APPLY_CLEAR_LOCK = 7;
+    static final int PHASE_COUNT = 8;
+
+    private static final String[] PHASE_NAMES = {"bind", "attach", "engine", "shown", "total",
+            "apply-component", "apply-offsets", "apply-clear-lock"};
+
+    /** Upper bounds of the histogram buckets in milliseconds; the last bucket is unbounded. */
+    private static final long[] BUCKET_BOUNDS = {16, 50, 100, 250, 500, 1000, 2500, 5000};
+    private static final int BUCKET_COUNT = BUCKET_BOUNDS.length + 1;
+
+    private static final int MAX_COMPONENTS = 16;
+    private static final int RING_SIZE = 64;
+
+    private static PreviewMetrics sInstance;
+
+    private final ComponentName[] mComponents = new ComponentName[MAX_COMPONENTS];
+    private final long[] mLastUsed = new long[MAX_COMPONENTS];
+    private final int[][][] mHistograms = new int[MAX_COMPONENTS][PHASE_COUNT][BUCKET_COUNT];
+    private final long[][] mMaxLatencies = new long[MAX_COMPONENTS][PHASE_COUNT];
+
+    private final int[] mRingComponents = new int[RING_SIZE];
+    private final int[] mRingPhases = new int[RING_SIZE];
+    private final long[] mRingLatencies = new long[RING_SIZE];
+    private final long[] mRingTimes = new long[RING_SIZE];
+    private int mRingNext;
+    private int mRingCount;
+    private long mClock;
+
+    static synchronized PreviewMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new PreviewMetrics();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records how long a phase took for the given wallpaper.
+     *
+     * @param uptimeMillis when the phase ended, in {@link android.os.SystemClock#uptimeMillis()}
+     */
+    synchronized void record(ComponentName component, int phase, long latencyMillis,
+            long uptimeMillis) {
+        int slot = getSlot(component);
+        mLastUsed[slot] = ++mClock;
+        mHistograms[slot][phase][getBucket(latencyMillis)]++;
+        if (latencyMillis > mMaxLatencies[slot][phase]) {
+            mMaxLatencies[slot][phase] = latencyMillis;
+        }
+
+        mRingComponents[mRingNext] = slot;
+        mRingPhases[mRingNext] = phase;
+        mRingLatencies[mRingNext] = latencyMillis;
+        mRingTimes[mRingNext] = uptimeMillis;
+        mRingNext = (mRingNext + 1) % RING_SIZE;
+        mRingCount = Math.min(mRingCount + 1, RING_SIZE);
+    }
+
+    synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.println("Preview latencies (ms):");
+        writer.print(prefix); writer.print("  buckets: <=");
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            writer.print(BUCKET_BOUNDS[i]);
+            writer.print(' ');
+        }
+        writer.println(">");
+        for (int slot = 0; slot < MAX_COMPONENTS; slot++) {
+            if (mComponents[slot] == null) {
+                continue;
+            }
+            writer.print(prefix); writer.print("  ");
+            writer.println(mComponents[slot].flattenToShortString());
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                writer.print(prefix); writer.print("    ");
+                writer.print(PHASE_NAMES[phase]);
+                writer.print(": ");
+                int count = 0;
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    writer.print(mHistograms[slot][phase][bucket]);
+                    writer.print(' ');
+                    count += mHistograms[slot][phase][bucket];
+                }
+                writer.print("count=");
+                writer.print(count);
+                writer.print(" max=");
+                writer.println(mMaxLatencies[slot][phase]);
+            }
+        }
+
+        writer.print(prefix); writer.println("  Recent samples (uptime component phase ms):");
+        int first = (mRingNext - mRingCount + RING_SIZE) % RING_SIZE;
+        for (int i = 0; i < mRingCount; i++) {
+            int index = (first + i) % RING_SIZE;
+            if (mRingComponents[index] < 0) {
+                continue;
+            }
+            writer.print(prefix); writer.print("    ");
+            writer.print(mRingTimes[index]);
+            writer.print(' ');
+            writer.print(mComponents[mRingComponents[index]].flattenToShortString());
+            writer.print(' ');
+            writer.print(PHASE_NAMES[mRingPhases[index]]);
+            writer.print(' ');
+            writer.println(mRingLatencies[index]);
+        }
+    }
+
+    /**
+     * Returns the slot of the given component, taking over the least recently used slot if it
+     * has none.
+     */
+    private int getSlot(ComponentName component) {
+        int oldest = 0;
+        for (int slot = 0; slot < MAX_COMPONENTS; slot++) {
+            if (component.equals(mComponents[slot])) {
+                return slot;
+            }
+            if (mLastUsed[slot] < mLastUsed[oldest]) {
+                oldest = slot;
+            }
+        }
+        mComponents[oldest] = component;
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            Arrays.fill(mHistograms[oldest][phase], 0);
+            mMaxLatencies[oldest][phase] = 0;
+        }
+        // Samples in the ring buffer now belong to a different component; drop them.
+        for (int i = 0; i < RING_SIZE; i++) {
+            if (mRingComponents[i] == oldest) {
+                mRingComponents[i] = -1;
+            }
+        }
+        return oldest;
+    }
+
+    private static int getBucket(long latencyMillis) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (latencyMillis <= BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+}
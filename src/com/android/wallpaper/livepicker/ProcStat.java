@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+/**
+ * Parses the {@code /proc/<pid>/stat} and {@code /proc/<pid>/status} files that
+ * {@link ProcessSampler} reads. Plain Java, so that it can be tested on the host against recorded
+ * files.
+ */
+class ProcStat {
+    /** Index of utime among the fields after the command name of /proc/<pid>/stat. */
+    private static final int STAT_UTIME = 11;
+    private static final int STAT_STIME = 12;
+
+    private ProcStat() {
+    }
+
+    /**
+     * Returns utime + stime, in clock ticks, from the contents of /proc/<pid>/stat. The command
+     * name may contain spaces and parentheses, so the fields are counted from its last ')'.
+     */
+    static long parseCpuTicks(String stat) {
+        int end = stat.lastIndexOf(')');
+        if (end < 0) {
+            throw new IllegalArgumentException("Malformed stat: " + stat);
+        }
+        String[] fields = stat.substring(end + 1).trim().split("\\s+");
+        if (fields.length <= STAT_STIME) {
+            throw new IllegalArgumentException("Malformed stat: " + stat);
+        }
+        return Long.parseLong(fields[STAT_UTIME]) + Long.parseLong(fields[STAT_STIME]);
+    }
+
+    /** Returns VmRSS, in kB, from the contents of /proc/<pid>/status. */
+    static long parseRssKb(String status) {
+        for (String line : status.split("\n")) {
+            if (line.startsWith("VmRSS:")) {
+                String[] fields = line.substring("VmRSS:".length()).trim().split("\\s+");
+                return Long.parseLong(fields[0]);
+            }
+        }
+        // Kernel threads and zombies have no VmRSS.
+        throw new IllegalArgumentException("No VmRSS in status");
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Samples the CPU time and resident memory of the process of a previewed wallpaper at a low fixed
+ * rate, from {@code /proc/<pid>/stat} and {@code /proc/<pid>/status}, and keeps the last
+ * {@link #SAMPLE_COUNT} samples for dumpsys.
+ *
+ * <p>The files are read on a background thread of the sampler's own, so that sampling neither
+ * waits behind nor holds up the picker's other background work. Where {@code /proc} hides other processes, e.g. when
+ * it is mounted with hidepid, sampling stops after the first failed read.
+ */
+class ProcessSampler {
+    private static final String LOG_TAG = "ProcessSampler";
+
+    private static final long INTERVAL_MS = 1000;
+    private static final int SAMPLE_COUNT = 60;
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int mPid;
+    private final String mLabel;
+    private final long mTicksPerSecond = Os.sysconf(OsConstants._SC_CLK_TCK);
+
+    // Ring of samples, guarded by this.
+    private final long[] mUptimes = new long[SAMPLE_COUNT];
+    private final long[] mCpuTicks = new long[SAMPLE_COUNT];
+    private final long[] mRssKb = new long[SAMPLE_COUNT];
+    private int mCount;
+    private int mNext;
+    private long mPeakRssKb;
+    private String mUnavailableReason;
+
+    private volatile boolean mStopped;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private final Runnable mSampleRunnable = this::sample;
+
+    /**
+     * @param pid the process to sample.
+     * @param label what the process is, for dumpsys.
+     */
+    ProcessSampler(int pid, String label) {
+        mPid = pid;
+        mLabel = label;
+    }
+
+    /** Starts sampling. A stopped sampler cannot be started again. */
+    void start() {
+        mThread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(mSampleRunnable);
+    }
+
+    /** Stops sampling and ends the sampler's thread, keeping the samples for dumpsys. */
+    void stop() {
+        mStopped = true;
+        if (mThread != null) {
+            mHandler.removeCallbacks(mSampleRunnable);
+            mThread.quit();
+        }
+    }
+
+    private void sample() {
+        if (mStopped) {
+            return;
+        }
+        long cpuTicks;
+        long rssKb;
+        try {
+            cpuTicks = ProcStat.parseCpuTicks(read("/proc/" + mPid + "/stat"));
+            rssKb = ProcStat.parseRssKb(read("/proc/" + mPid + "/status"));
+        } catch (IOException | IllegalArgumentException e) {
+            // Gone, or hidden from this process; either way there is nothing more to read.
+            Log.i(LOG_TAG, "Stopped sampling " + mLabel + ": " + e);
+            synchronized (this) {
+                mUnavailableReason = e.toString();
+            }
+            return;
+        }
+        synchronized (this) {
+            mUptimes[mNext] = SystemClock.uptimeMillis();
+            mCpuTicks[mNext] = cpuTicks;
+            mRssKb[mNext] = rssKb;
+            mNext = (mNext + 1) % SAMPLE_COUNT;
+            mCount = Math.min(mCount + 1, SAMPLE_COUNT);
+            mPeakRssKb = Math.max(mPeakRssKb, rssKb);
+        }
+        if (!mStopped) {
+            mHandler.postDelayed(mSampleRunnable, INTERVAL_MS);
+        }
+    }
+
+    private String read(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            int length = 0;
+            int read;
+            while (length < mBuffer.length
+                    && (read = in.read(mBuffer, length, mBuffer.length - length)) > 0) {
+                length += read;
+            }
+            return new String(mBuffer, 0, length, StandardCharsets.US_ASCII);
+        }
+    }
+
+    synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("Wallpaper process ");
+        writer.print(mLabel); writer.print(" (pid "); writer.print(mPid); writer.println("):");
+        if (mCount > 0) {
+            int last = (mNext + SAMPLE_COUNT - 1) % SAMPLE_COUNT;
+            int first = (mNext + SAMPLE_COUNT - mCount) % SAMPLE_COUNT;
+            long rssSumKb = 0;
+            for (int i = 0; i < mCount; i++) {
+                rssSumKb += mRssKb[(first + i) % SAMPLE_COUNT];
+            }
+            writer.print(prefix); writer.print("  rss=");
+            writer.print(mRssKb[last]); writer.print("kB avg=");
+            writer.print(rssSumKb / mCount); writer.print("kB peak=");
+            writer.print(mPeakRssKb); writer.println("kB");
+            long elapsedMs = mUptimes[last] - mUptimes[first];
+            if (elapsedMs > 0 && mTicksPerSecond > 0) {
+                long cpuMs = (mCpuTicks[last] - mCpuTicks[first]) * 1000 / mTicksPerSecond;
+                writer.print(prefix); writer.print("  cpu=");
+                writer.print(cpuMs * 100f / elapsedMs); writer.print("% over last ");
+                writer.print(elapsedMs / 1000); writer.print("s, ");
+                writer.print(mCpuTicks[last] * 1000 / mTicksPerSecond);
+                writer.println("ms in total");
+            }
+        }
+        if (mUnavailableReason != null) {
+            writer.print(prefix); writer.print("  unavailable: ");
+            writer.println(mUnavailableReason);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Disk cache of list thumbnails that have already been scaled down to the size shown in the
+ * picker. Entries are keyed by the wallpaper component, the version stamp of its package and the
+ * thumbnail size, so an update of the wallpaper package or a density change naturally
+ * invalidates the cached image. Placeholders have the title drawn into them, so they are also
+ * keyed by the locale and the title.
+ */
+class ThumbnailCache {
+    private static final String LOG_TAG = "ThumbnailCache";
+
+    private static final String DIR_NAME = "thumbnails";
+    private static final String SUFFIX = ".png";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final BitmapPool mPool;
+    private final int mWidth;
+    private final int mHeight;
+
+    ThumbnailCache(Context context, BitmapPool pool) {
+        Resources res = context.getResources();
+        mDir = new File(context.getCacheDir(), DIR_NAME);
+        mPool = pool;
+        mWidth = res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_width);
+        mHeight = res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_height);
+    }
+
+    /**
+     * Returns the cached thumbnail for the given component, or null if there is none for the
+     * current version of its package.
+     *
+     * @param placeholderTitle the title to look for a placeholder with, or null to only look
+     *         for a decoded thumbnail
+     */
+    Bitmap get(ComponentName component, PackageInfo packageInfo,
+            CharSequence placeholderTitle) {
+        File file = findFile(component, packageInfo, placeholderTitle);
+        if (file == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Decode into a pooled bitmap, which is large enough for any thumbnail of this size. The
+        // decoded image takes the config of the pooled bitmap, so it keeps any transparency.
+        options.inMutable = true;
+        options.inBitmap = mPool.acquire(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            // decodeFile() returns null, rather than throwing, when the image does not fit the
+            // pooled bitmap, so only give up on the file once it fails without one too.
+            mPool.release(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        } else if (bitmap != options.inBitmap) {
+            mPool.release(options.inBitmap);
+        }
+        if (bitmap == null) {
+            Log.w(LOG_TAG, "Dropping unreadable thumbnail " + file);
+            file.delete();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Stores the thumbnail for the given component, replacing the ones cached for older versions
+     * of its package, other sizes or other titles.
+     *
+     * @param placeholderTitle the title drawn into the thumbnail if it is a placeholder, or null
+     */
+    void put(ComponentName component, PackageInfo packageInfo, Bitmap bitmap,
+            CharSequence placeholderTitle) {
+        File file = getFile(component, packageInfo, placeholderTitle);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + dir);
+            return;
+        }
+
+        // Write to a temporary file first so that a concurrent reader never sees a partial image.
+        File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                throw new IOException("Unable to encode thumbnail");
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed writing thumbnail for " + component, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(LOG_TAG, "Failed renaming " + temp);
+            temp.delete();
+            return;
+        }
+
+        removeStale(dir, component.getClassName(), file.getName());
+    }
+
+    private void removeStale(File dir, String serviceName, String current) {
+        String prefix = serviceName + '-';
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix) && !name.equals(current)) {
+                new File(dir, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail file of the given component for the given version of its
+     * package, or null if there is none. Files are PNGs that are only ever replaced, never
+     * rewritten in place, so they can be handed out as they are.
+     *
+     * @param placeholderTitle the title to look for a placeholder with, or null to only look
+     *         for a decoded thumbnail
+     */
+    File findFile(ComponentName component, PackageInfo packageInfo,
+            CharSequence placeholderTitle) {
+        File file = getFile(component, packageInfo, null);
+        if (!file.exists() && placeholderTitle != null) {
+            file = getFile(component, packageInfo, placeholderTitle);
+        }
+        return file.exists() ? file : null;
+    }
+
+    private File getFile(ComponentName component, PackageInfo packageInfo,
+            CharSequence placeholderTitle) {
+        // Package and class names cannot contain '-', so it is safe to use as a separator.
+        StringBuilder name = new StringBuilder(component.getClassName())
+                .append('-').append(packageInfo.versionCode)
+                .append('-').append(packageInfo.lastUpdateTime)
+                .append('-').append(mWidth).append('x').append(mHeight);
+        if (placeholderTitle != null) {
+            name.append('-').append(Locale.getDefault().toLanguageTag())
+                    .append('-').append(Integer.toHexString(
+                            placeholderTitle.toString().hashCode()));
+        }
+        return new File(new File(mDir, component.getPackageName()),
+                name.append(SUFFIX).toString());
+    }
+}
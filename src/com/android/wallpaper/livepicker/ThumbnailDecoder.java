@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ServiceInfo;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.service.wallpaper.WallpaperService;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+/**
+ * Produces list thumbnails at the size they are displayed at. Bitmap thumbnails are decoded
+ * straight from the wallpaper package with a sample size, so the full-resolution image is never
+ * held in memory.
+ */
+class ThumbnailDecoder {
+    private static final String LOG_TAG = "ThumbnailDecoder";
+
+    private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+    private static final String ATTR_THUMBNAIL = "thumbnail";
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
+    private final PackageManager mPackageManager;
+    private final BitmapPool mPool;
+    private final int mWidth;
+    private final int mHeight;
+    private final boolean mPreferRgb565;
+
+    ThumbnailDecoder(Context context, BitmapPool pool) {
+        Resources res = context.getResources();
+        mPackageManager = context.getPackageManager();
+        mPool = pool;
+        mWidth = res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_width);
+        mHeight = res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_height);
+        mPreferRgb565 = res.getBoolean(R.bool.live_wallpaper_thumbnail_prefer_rgb565);
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Decodes the thumbnail declared by the given wallpaper service, scaled and center-cropped to
+     * the thumbnail size. Returns null if the wallpaper has no thumbnail. The returned bitmap
+     * comes from the pool.
+     */
+    Bitmap decode(ServiceInfo serviceInfo) {
+        int resId = getThumbnailResource(serviceInfo);
+        if (resId == 0) {
+            return null;
+        }
+        Resources res;
+        try {
+            res = mPackageManager.getResourcesForApplication(serviceInfo.applicationInfo);
+        } catch (NameNotFoundException e) {
+            return null;
+        }
+
+        Bitmap thumbnail = decodeBitmap(res, resId);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        // Not a bitmap, e.g. a vector or state list drawable.
+        Drawable thumb = mPackageManager.getDrawable(serviceInfo.packageName, resId,
+                serviceInfo.applicationInfo);
+        return thumb != null ? draw(thumb) : null;
+    }
+
+    private Bitmap decodeBitmap(Resources res, int resId) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        try {
+            BitmapFactory.decodeResource(res, resId, options);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // JPEG has no alpha channel, so it loses nothing by being decoded to 16 bits.
+        Bitmap.Config config = mPreferRgb565 && MIME_TYPE_JPEG.equals(options.outMimeType)
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight);
+        options.inPreferredConfig = config;
+        Bitmap sampled = BitmapFactory.decodeResource(res, resId, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        Bitmap thumbnail = mPool.acquire(mWidth, mHeight, config);
+        Canvas canvas = new Canvas(thumbnail);
+        canvas.drawBitmap(sampled, getCropRect(sampled.getWidth(), sampled.getHeight()),
+                new Rect(0, 0, mWidth, mHeight),
+                new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG));
+        canvas.setBitmap(null);
+        sampled.recycle();
+        return thumbnail;
+    }
+
+    /**
+     * Renders a drawable thumbnail, scaled and center-cropped to the thumbnail size.
+     */
+    private Bitmap draw(Drawable thumb) {
+        Bitmap thumbnail = mPool.acquire(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(thumbnail);
+        int width = thumb.getIntrinsicWidth();
+        int height = thumb.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            thumb.setBounds(0, 0, mWidth, mHeight);
+        } else {
+            float scale = Math.max((float) mWidth / width, (float) mHeight / height);
+            int scaledWidth = Math.round(width * scale);
+            int scaledHeight = Math.round(height * scale);
+            int left = (mWidth - scaledWidth) / 2;
+            int top = (mHeight - scaledHeight) / 2;
+            thumb.setBounds(left, top, left + scaledWidth, top + scaledHeight);
+        }
+        thumb.draw(canvas);
+        canvas.setBitmap(null);
+        return thumbnail;
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps both dimensions at least as large
+     * as the thumbnail.
+     */
+    private int computeSampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= mWidth && height / (sampleSize * 2) >= mHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private Rect getCropRect(int width, int height) {
+        // Take the largest centered region with the aspect ratio of the thumbnail.
+        if ((long) width * mHeight > (long) height * mWidth) {
+            int cropWidth = (int) ((long) height * mWidth / mHeight);
+            int left = (width - cropWidth) / 2;
+            return new Rect(left, 0, left + cropWidth, height);
+        } else {
+            int cropHeight = (int) ((long) width * mHeight / mWidth);
+            int top = (height - cropHeight) / 2;
+            return new Rect(0, top, width, top + cropHeight);
+        }
+    }
+
+    /**
+     * Reads the thumbnail resource id from the wallpaper's meta-data, which
+     * {@link android.app.WallpaperInfo} does not expose.
+     */
+    private int getThumbnailResource(ServiceInfo serviceInfo) {
+        XmlResourceParser parser = null;
+        try {
+            parser = serviceInfo.loadXmlMetaData(mPackageManager,
+                    WallpaperService.SERVICE_META_DATA);
+            if (parser == null) {
+                return 0;
+            }
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                    && type != XmlPullParser.START_TAG) {
+            }
+            if (type != XmlPullParser.START_TAG) {
+                return 0;
+            }
+            return parser.getAttributeResourceValue(ANDROID_NAMESPACE, ATTR_THUMBNAIL, 0);
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(LOG_TAG, "Unable to read thumbnail of " + serviceInfo, e);
+            return 0;
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads list thumbnails on demand. Thumbnails of visible rows are loaded before the ones
+ * prefetched around them, and requests for rows that are no longer wanted are dropped before
+ * they are decoded. Loaded thumbnails are kept in a bounded in-memory cache backed by
+ * {@link ThumbnailCache}.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class ThumbnailLoader {
+    private static final String LOG_TAG = "ThumbnailLoader";
+
+    /** Priority of a thumbnail for a row on screen. */
+    static final int PRIORITY_VISIBLE = 0;
+    /** Priority of a thumbnail for the current or a recently used wallpaper. */
+    static final int PRIORITY_RECENT = 1;
+    /** Priority of a thumbnail for a row just outside the screen. */
+    static final int PRIORITY_PREFETCH = 2;
+
+    private static final int MEMORY_CACHE_DIVISOR = 16;
+
+    interface Callback {
+        /** Called when the thumbnail of a row has been loaded into the memory cache. */
+        void onThumbnailLoaded(LiveWallpaperInfo wallpaper);
+
+        /** Returns whether the thumbnail of the given component is currently displayed. */
+        boolean isThumbnailInUse(ComponentName component);
+    }
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final BitmapPool mBitmapPool;
+    private final ThumbnailSource mThumbnailSource;
+    private final LruCache<ComponentName, BitmapDrawable> mMemoryCache;
+    private final Map<ComponentName, Request> mRequests = new HashMap<>();
+    /** Components whose thumbnail in the memory cache is a placeholder. */
+    private final Set<ComponentName> mPlaceholders = new HashSet<>();
+    private final Map<String, PackageInfo> mPackageInfos = new HashMap<>();
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private boolean mDestroyed;
+
+    ThumbnailLoader(Context context, Callback callback) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mCallback = callback;
+        mBitmapPool = BitmapPool.getInstance();
+        mThumbnailSource = new ThumbnailSource(context, mBitmapPool);
+
+        int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_DIVISOR);
+        mMemoryCache = new LruCache<ComponentName, BitmapDrawable>(maxBytes) {
+            @Override
+            protected int sizeOf(ComponentName key, BitmapDrawable value) {
+                return value.getBitmap().getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, ComponentName key,
+                    BitmapDrawable oldValue, BitmapDrawable newValue) {
+                if (newValue == null) {
+                    mPlaceholders.remove(key);
+                }
+                // A bitmap that is still on screen is left to the garbage collector instead,
+                // even on destroy, when recycled rows may still be drawing it.
+                if (!mCallback.isThumbnailInUse(key)) {
+                    mBitmapPool.release(oldValue.getBitmap());
+                }
+            }
+        };
+
+        // Requests are ordered by priority first, then by the order they were made in.
+        mExecutor = LiveWallpaperLoader.createExecutor(LOG_TAG,
+                new PriorityBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Returns the thumbnail of the given component if it is in the memory cache.
+     */
+    BitmapDrawable get(ComponentName component) {
+        return mMemoryCache.get(component);
+    }
+
+    /**
+     * Makes sure the thumbnail of the given row gets loaded at no lower than the given priority.
+     */
+    void request(LiveWallpaperInfo wallpaper, int priority) {
+        if (mDestroyed || mMemoryCache.get(wallpaper.component) != null) {
+            return;
+        }
+        Request request = mRequests.get(wallpaper.component);
+        if (request != null && request.mWallpaper.resolveInfo == null
+                && wallpaper.resolveInfo != null) {
+            // Made for a restored row, which can only be served from the disk cache; the
+            // validated row can also be decoded, so it takes over.
+            request.mStale = true;
+            mExecutor.remove(request);
+            mRequests.remove(wallpaper.component);
+            request = null;
+        }
+        if (request != null) {
+            if (request.mPriority <= priority || !mExecutor.remove(request)) {
+                // Already queued at a higher priority, or already being decoded.
+                return;
+            }
+            request.mPriority = priority;
+        } else {
+            request = new Request(wallpaper, priority);
+            mRequests.put(wallpaper.component, request);
+        }
+        request.mSequence = mSequence.incrementAndGet();
+        try {
+            mExecutor.execute(request);
+        } catch (RejectedExecutionException e) {
+            mRequests.remove(wallpaper.component);
+        }
+    }
+
+    /**
+     * Cancels the queued requests of every component not in the given set.
+     */
+    void retainOnly(Set<ComponentName> components) {
+        List<ComponentName> cancelled = null;
+        for (Map.Entry<ComponentName, Request> entry : mRequests.entrySet()) {
+            if (!components.contains(entry.getKey()) && mExecutor.remove(entry.getValue())) {
+                if (cancelled == null) {
+                    cancelled = new ArrayList<>();
+                }
+                cancelled.add(entry.getKey());
+            }
+        }
+        if (cancelled != null) {
+            for (ComponentName component : cancelled) {
+                mRequests.remove(component);
+            }
+        }
+    }
+
+    /**
+     * Forgets everything loaded for the given package, so that its thumbnails are loaded again
+     * for its current version.
+     */
+    void invalidatePackage(String packageName) {
+        synchronized (mPackageInfos) {
+            mPackageInfos.remove(packageName);
+        }
+        Iterator<Map.Entry<ComponentName, Request>> requests = mRequests.entrySet().iterator();
+        while (requests.hasNext()) {
+            Map.Entry<ComponentName, Request> entry = requests.next();
+            if (entry.getKey().getPackageName().equals(packageName)) {
+                entry.getValue().mStale = true;
+                mExecutor.remove(entry.getValue());
+                requests.remove();
+            }
+        }
+        for (ComponentName component : mMemoryCache.snapshot().keySet()) {
+            if (component.getPackageName().equals(packageName)) {
+                mMemoryCache.remove(component);
+            }
+        }
+    }
+
+    /**
+     * Forgets the thumbnail of the given component if it is a placeholder, e.g. because the
+     * title drawn into it has changed, so that it is rendered again when next requested.
+     */
+    void invalidatePlaceholder(ComponentName component) {
+        Request request = mRequests.remove(component);
+        if (request != null) {
+            // May be rendering the old title.
+            request.mStale = true;
+            mExecutor.remove(request);
+        }
+        if (mPlaceholders.contains(component)) {
+            mMemoryCache.remove(component);
+        }
+    }
+
+    /**
+     * Stops loading and returns the cached thumbnails that are not displayed to the bitmap pool.
+     */
+    void destroy() {
+        mDestroyed = true;
+        mExecutor.shutdownNow();
+        mHandler.removeCallbacksAndMessages(null);
+        mRequests.clear();
+        mMemoryCache.evictAll();
+    }
+
+    private void onLoaded(Request request, BitmapDrawable thumbnail) {
+        TraceHelper.endAsync(TraceHelper.TRACK_THUMBNAIL, request.mWallpaper.component);
+        if (mDestroyed) {
+            mBitmapPool.release(thumbnail.getBitmap());
+            return;
+        }
+        ComponentName component = request.mWallpaper.component;
+        if (mRequests.get(component) == request) {
+            mRequests.remove(component);
+        }
+        if (request.mStale) {
+            // Loaded for a version of the package that has since been replaced.
+            mBitmapPool.release(thumbnail.getBitmap());
+            return;
+        }
+        mMemoryCache.put(component, thumbnail);
+        if (request.mPlaceholder) {
+            mPlaceholders.add(component);
+        }
+        mCallback.onThumbnailLoaded(request.mWallpaper);
+    }
+
+    /**
+     * Returns the thumbnail of the given request's row, and records whether it is a placeholder.
+     * Returns null if the row is not cached and cannot be decoded yet. Called on a worker thread.
+     */
+    private Bitmap load(Request request) {
+        ComponentName component = request.mWallpaper.component;
+        ThumbnailSource.Thumbnail thumbnail = mThumbnailSource.load(request.mWallpaper,
+                getPackageInfo(component.getPackageName()));
+        if (thumbnail == null) {
+            return null;
+        }
+        request.mPlaceholder = thumbnail.placeholder;
+        return thumbnail.bitmap;
+    }
+
+    private PackageInfo getPackageInfo(String packageName) {
+        synchronized (mPackageInfos) {
+            if (mPackageInfos.containsKey(packageName)) {
+                return mPackageInfos.get(packageName);
+            }
+        }
+        PackageInfo packageInfo = null;
+        try {
+            packageInfo = mPackageManager.getPackageInfo(packageName, 0);
+        } catch (NameNotFoundException e) {
+            Log.w(LOG_TAG, "Not caching thumbnails of missing package " + packageName);
+        }
+        synchronized (mPackageInfos) {
+            mPackageInfos.put(packageName, packageInfo);
+        }
+        return packageInfo;
+    }
+
+    private class Request implements Runnable, Comparable<Request> {
+        final LiveWallpaperInfo mWallpaper;
+        volatile int mPriority;
+        volatile long mSequence;
+        boolean mStale;
+        /** Set on the worker thread before the result is posted. */
+        boolean mPlaceholder;
+
+        Request(LiveWallpaperInfo wallpaper, int priority) {
+            mWallpaper = wallpaper;
+            mPriority = priority;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap;
+            TraceHelper.beginAsync(TraceHelper.TRACK_THUMBNAIL, mWallpaper.component);
+            Trace.beginSection("loadThumbnail");
+            try {
+                bitmap = load(this);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Failed loading thumbnail of " + mWallpaper.component, e);
+                TraceHelper.endAsync(TraceHelper.TRACK_THUMBNAIL, mWallpaper.component);
+                mHandler.post(() -> mRequests.remove(mWallpaper.component, this));
+                return;
+            } finally {
+                Trace.endSection();
+            }
+            if (bitmap == null) {
+                TraceHelper.endAsync(TraceHelper.TRACK_THUMBNAIL, mWallpaper.component);
+                mHandler.post(() -> mRequests.remove(mWallpaper.component, this));
+                return;
+            }
+            Resources res = mContext.getResources();
+            BitmapDrawable thumbnail = new BitmapDrawable(res, bitmap);
+            thumbnail.setDither(true);
+            mHandler.post(() -> onLoaded(this, thumbnail));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.graphics.Bitmap;
+import android.os.Trace;
+
+import java.io.File;
+
+/**
+ * Produces the thumbnail of a row: from {@link ThumbnailCache} if it is cached, or else decoded
+ * by {@link ThumbnailDecoder}, or rendered as a placeholder, and cached. Blocks, and holds nothing
+ * in memory but the placeholder template, so it may be used on any thread but the main one.
+ */
+class ThumbnailSource {
+    /** A thumbnail, and whether it is a placeholder. */
+    static class Thumbnail {
+        final Bitmap bitmap;
+        final boolean placeholder;
+
+        Thumbnail(Bitmap bitmap, boolean placeholder) {
+            this.bitmap = bitmap;
+            this.placeholder = placeholder;
+        }
+    }
+
+    private final Context mContext;
+    private final BitmapPool mBitmapPool;
+    private final ThumbnailCache mThumbnailCache;
+    private final ThumbnailDecoder mThumbnailDecoder;
+
+    private PlaceholderRenderer mPlaceholderRenderer;
+
+    ThumbnailSource(Context context, BitmapPool pool) {
+        mContext = context;
+        mBitmapPool = pool;
+        mThumbnailCache = new ThumbnailCache(context, pool);
+        mThumbnailDecoder = new ThumbnailDecoder(context, pool);
+    }
+
+    /**
+     * Returns the thumbnail of the given row from the disk cache, or creates and caches it.
+     * Returns null if the row is not cached and cannot be decoded yet. The bitmap comes from the
+     * pool.
+     *
+     * @param packageInfo the installed version of the row's package, or null if it is gone, in
+     *         which case nothing is cached
+     */
+    Thumbnail load(LiveWallpaperInfo wallpaper, PackageInfo packageInfo) {
+        ComponentName component = wallpaper.component;
+        if (packageInfo != null) {
+            Bitmap thumbnail = mThumbnailCache.get(component, packageInfo, null);
+            if (thumbnail != null) {
+                return new Thumbnail(thumbnail, false);
+            }
+            thumbnail = mThumbnailCache.get(component, packageInfo, wallpaper.label);
+            if (thumbnail != null) {
+                return new Thumbnail(thumbnail, true);
+            }
+        }
+        if (wallpaper.resolveInfo == null) {
+            // A row restored from the snapshot cannot be decoded until it has been validated.
+            return null;
+        }
+
+        Trace.beginSection("decodeThumbnail");
+        Bitmap thumbnail = mThumbnailDecoder.decode(wallpaper.resolveInfo.serviceInfo);
+        Trace.endSection();
+        boolean placeholder = thumbnail == null;
+        if (placeholder) {
+            // Wallpapers without a thumbnail get a placeholder with their title on it.
+            long start = System.nanoTime();
+            Trace.beginSection("renderPlaceholder");
+            thumbnail = getPlaceholderRenderer().render(wallpaper.label);
+            Trace.endSection();
+            CatalogMetrics.getInstance().record(CatalogMetrics.OP_PLACEHOLDER, start);
+        }
+        if (packageInfo != null) {
+            mThumbnailCache.put(component, packageInfo, thumbnail,
+                    placeholder ? wallpaper.label : null);
+        }
+        return new Thumbnail(thumbnail, placeholder);
+    }
+
+    /**
+     * Returns the disk cache file of the thumbnail of the given row, decoding or rendering and
+     * caching the thumbnail first if there is none. Returns null if the row cannot be decoded.
+     *
+     * @param packageInfo the installed version of the row's package
+     */
+    File loadFile(LiveWallpaperInfo wallpaper, PackageInfo packageInfo) {
+        ComponentName component = wallpaper.component;
+        File file = mThumbnailCache.findFile(component, packageInfo, wallpaper.label);
+        if (file == null) {
+            Thumbnail thumbnail = load(wallpaper, packageInfo);
+            if (thumbnail != null) {
+                mBitmapPool.release(thumbnail.bitmap);
+                file = mThumbnailCache.findFile(component, packageInfo, wallpaper.label);
+            }
+        }
+        return file;
+    }
+
+    private synchronized PlaceholderRenderer getPlaceholderRenderer() {
+        if (mPlaceholderRenderer == null) {
+            mPlaceholderRenderer = new PlaceholderRenderer(mContext.getResources(), mBitmapPool,
+                    mThumbnailDecoder.getWidth(), mThumbnailDecoder.getHeight());
+        }
+        return mPlaceholderRenderer;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.os.RemoteException;
+import android.service.wallpaper.IWallpaperEngine;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+
+import java.io.PrintWriter;
+
+/**
+ * Forwards the touch events of the preview to the wallpaper engine. Moves are coalesced so that
+ * at most one is sent per frame, while downs, ups and pointer changes are sent as they happen,
+ * after any move still pending so that the engine sees them in order.
+ *
+ * <p>Every forwarded event is a copy that is recycled once it has been sent. All methods must
+ * be called on the main thread.
+ */
+class TouchForwarder implements Choreographer.FrameCallback {
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    private IWallpaperEngine mEngine;
+    private MotionEvent mPendingMove;
+    private boolean mFrameScheduled;
+
+    private long mReceivedCount;
+    private long mForwardedCount;
+    private long mCoalescedCount;
+    private long mCopyCount;
+
+    /**
+     * Forwards the given event to the engine, or holds on to a copy of it until the next frame
+     * if it is a move.
+     */
+    void forward(MotionEvent event, IWallpaperEngine engine) {
+        mReceivedCount++;
+        if (engine != mEngine) {
+            cancel();
+            mEngine = engine;
+        }
+        if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
+            if (mPendingMove != null) {
+                // Only the latest position matters to the engine.
+                mPendingMove.recycle();
+                mCoalescedCount++;
+            }
+            mPendingMove = copy(event);
+            if (!mFrameScheduled) {
+                mFrameScheduled = true;
+                mChoreographer.postFrameCallback(this);
+            }
+            return;
+        }
+        flush();
+        dispatch(copy(event));
+    }
+
+    /**
+     * Drops the pending move, e.g. when the engine goes away.
+     */
+    void cancel() {
+        if (mFrameScheduled) {
+            mFrameScheduled = false;
+            mChoreographer.removeFrameCallback(this);
+        }
+        if (mPendingMove != null) {
+            mPendingMove.recycle();
+            mPendingMove = null;
+        }
+        mEngine = null;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        flush();
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("Touch forwarding: received=");
+        writer.print(mReceivedCount);
+        writer.print(" forwarded=");
+        writer.print(mForwardedCount);
+        writer.print(" coalesced=");
+        writer.print(mCoalescedCount);
+        writer.print(" copies=");
+        writer.println(mCopyCount);
+    }
+
+    private void flush() {
+        if (mPendingMove != null) {
+            MotionEvent move = mPendingMove;
+            mPendingMove = null;
+            dispatch(move);
+        }
+    }
+
+    private MotionEvent copy(MotionEvent event) {
+        mCopyCount++;
+        return MotionEvent.obtainNoHistory(event);
+    }
+
+    private void dispatch(MotionEvent event) {
+        try {
+            if (mEngine != null) {
+                // The event is written to a parcel by the call, so it can be recycled after.
+                mEngine.dispatchPointer(event);
+                mForwardedCount++;
+            }
+        } catch (RemoteException e) {
+            // The engine died; the connection will find out.
+        } finally {
+            event.recycle();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.os.Trace;
+
+/**
+ * Per-wallpaper async trace tracks, so that the work done for a single wallpaper can be followed
+ * across threads in a system trace. Track names are only built while app tracing is enabled.
+ */
+class TraceHelper {
+    /** Track from the start to the end of parsing a wallpaper's info. */
+    static final String TRACK_PARSE = "parse ";
+    /** Track from starting to load a wallpaper's thumbnail until it is in the memory cache. */
+    static final String TRACK_THUMBNAIL = "thumbnail ";
+    /** Track from connecting a preview until its engine has shown its first frame. */
+    static final String TRACK_PREVIEW = "preview ";
+
+    private TraceHelper() {
+    }
+
+    static void beginAsync(String track, ComponentName component) {
+        if (Trace.isTagEnabled(Trace.TRACE_TAG_APP)) {
+            Trace.asyncTraceBegin(Trace.TRACE_TAG_APP, track + component.flattenToShortString(),
+                    component.hashCode());
+        }
+    }
+
+    static void endAsync(String track, ComponentName component) {
+        if (Trace.isTagEnabled(Trace.TRACE_TAG_APP)) {
+            Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, track + component.flattenToShortString(),
+                    component.hashCode());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wallpapers most recently previewed or set, most recent first, so that the loader can get
+ * to them before the rest of the catalog.
+ */
+class UsageHistory {
+    private static final String PREFS_NAME = "usage_history";
+    private static final String KEY_RECENT = "recent";
+    private static final int MAX_ENTRIES = 8;
+
+    private static UsageHistory sInstance;
+
+    private final SharedPreferences mPrefs;
+    /** Loaded from the preferences on first use. */
+    private List<ComponentName> mRecent;
+
+    static synchronized UsageHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UsageHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UsageHistory(Context context) {
+        // Starts reading the file in the background.
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Moves the given wallpaper to the front of the history. Done in the background, since the
+     * preferences may not have been read yet.
+     */
+    void record(final ComponentName component) {
+        AsyncTask.SERIAL_EXECUTOR.execute(() -> {
+            synchronized (UsageHistory.this) {
+                List<ComponentName> recent = getRecentLocked();
+                recent.remove(component);
+                recent.add(0, component);
+                while (recent.size() > MAX_ENTRIES) {
+                    recent.remove(recent.size() - 1);
+                }
+                List<String> entries = new ArrayList<>(recent.size());
+                for (ComponentName entry : recent) {
+                    entries.add(entry.flattenToShortString());
+                }
+                mPrefs.edit().putString(KEY_RECENT, TextUtils.join(" ", entries)).apply();
+            }
+        });
+    }
+
+    /**
+     * Returns the recently used wallpapers, most recent first. May block on reading the
+     * preferences, so must not be called on the main thread.
+     */
+    synchronized List<ComponentName> getRecent() {
+        return new ArrayList<>(getRecentLocked());
+    }
+
+    private List<ComponentName> getRecentLocked() {
+        if (mRecent == null) {
+            mRecent = new ArrayList<>();
+            String value = mPrefs.getString(KEY_RECENT, "");
+            for (String entry : TextUtils.split(value, " ")) {
+                ComponentName component = ComponentName.unflattenFromString(entry);
+                if (component != null) {
+                    mRecent.add(component);
+                }
+            }
+        }
+        return mRecent;
+    }
+}
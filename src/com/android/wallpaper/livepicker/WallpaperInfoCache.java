@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.app.WallpaperInfo;
+import android.content.ComponentName;
+import android.content.pm.PackageInfo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of parsed {@link WallpaperInfo}, so that a wallpaper that is previewed
+ * repeatedly is only parsed once per version of its package.
+ */
+class WallpaperInfoCache {
+    private static WallpaperInfoCache sInstance;
+
+    private final Map<ComponentName, Entry> mEntries = new HashMap<>();
+
+    static synchronized WallpaperInfoCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new WallpaperInfoCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the cached info of the given component, or null if there is none for the given
+     * version of its package.
+     */
+    synchronized WallpaperInfo get(ComponentName component, PackageInfo packageInfo) {
+        Entry entry = mEntries.get(component);
+        if (entry == null || packageInfo == null || entry.mVersionCode != packageInfo.versionCode
+                || entry.mLastUpdateTime != packageInfo.lastUpdateTime) {
+            return null;
+        }
+        return entry.mInfo;
+    }
+
+    synchronized void put(ComponentName component, PackageInfo packageInfo, WallpaperInfo info) {
+        if (packageInfo != null) {
+            mEntries.put(component, new Entry(info, packageInfo));
+        }
+    }
+
+    private static class Entry {
+        final WallpaperInfo mInfo;
+        final int mVersionCode;
+        final long mLastUpdateTime;
+
+        Entry(WallpaperInfo info, PackageInfo packageInfo) {
+            mInfo = info;
+            mVersionCode = packageInfo.versionCode;
+            mLastUpdateTime = packageInfo.lastUpdateTime;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.service.wallpaper.WallpaperService;
+import android.util.Log;
+
+/**
+ * Binds a wallpaper service ahead of time, while its row in the picker is being pressed, so that
+ * the preview finds the service already running. The binding is made with the application
+ * context, so it outlives the picker activity, and is released if no preview claims it soon
+ * enough.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class WallpaperPrebinder {
+    private static final String LOG_TAG = "WallpaperPrebinder";
+
+    private static WallpaperPrebinder sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mReleaseRunnable = this::releaseWarmBinding;
+
+    private Binding mWarmBinding;
+
+    static synchronized WallpaperPrebinder getInstance() {
+        if (sInstance == null) {
+            sInstance = new WallpaperPrebinder();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts binding the given wallpaper service, replacing any other unclaimed binding.
+     */
+    void prebind(Context context, ComponentName component) {
+        if (mWarmBinding == null || !mWarmBinding.mComponent.equals(component)) {
+            releaseWarmBinding();
+            Binding binding = new Binding(context.getApplicationContext(), component);
+            if (!binding.bind()) {
+                Log.w(LOG_TAG, "Unable to bind " + component);
+                return;
+            }
+            mWarmBinding = binding;
+        }
+        mHandler.removeCallbacks(mReleaseRunnable);
+        mHandler.postDelayed(mReleaseRunnable, context.getResources().getInteger(
+                R.integer.live_wallpaper_prebind_timeout_ms));
+    }
+
+    /**
+     * Hands over the binding of the given wallpaper service, if there is one. The caller
+     * becomes responsible for releasing it.
+     */
+    Binding claim(ComponentName component) {
+        if (mWarmBinding == null || !mWarmBinding.mComponent.equals(component)) {
+            return null;
+        }
+        Binding binding = mWarmBinding;
+        mWarmBinding = null;
+        mHandler.removeCallbacks(mReleaseRunnable);
+        return binding;
+    }
+
+    /**
+     * Releases the binding of the given wallpaper service right away if it has not been claimed,
+     * e.g. because the row being pressed was scrolled instead.
+     */
+    void release(ComponentName component) {
+        if (mWarmBinding != null && mWarmBinding.mComponent.equals(component)) {
+            releaseWarmBinding();
+        }
+    }
+
+    private void releaseWarmBinding() {
+        mHandler.removeCallbacks(mReleaseRunnable);
+        if (mWarmBinding != null) {
+            mWarmBinding.release();
+            mWarmBinding = null;
+        }
+    }
+
+    /**
+     * A binding to a wallpaper service that forwards its connection events to whoever claimed
+     * it, including the connection that happened before it was claimed.
+     */
+    static class Binding implements ServiceConnection {
+        final ComponentName mComponent;
+        private final Context mContext;
+        private ServiceConnection mClient;
+        private IBinder mService;
+        private boolean mBound;
+
+        private Binding(Context context, ComponentName component) {
+            mContext = context;
+            mComponent = component;
+        }
+
+        private boolean bind() {
+            Intent intent = new Intent(WallpaperService.SERVICE_INTERFACE)
+                    .setComponent(mComponent);
+            mBound = mContext.bindService(intent, this, Context.BIND_AUTO_CREATE);
+            return mBound;
+        }
+
+        /**
+         * Sets the connection to forward events to. If the service is already connected, the
+         * client is told so right away.
+         */
+        void setClient(ServiceConnection client) {
+            mClient = client;
+            if (mService != null) {
+                client.onServiceConnected(mComponent, mService);
+            }
+        }
+
+        /** Unbinds the service. No more events are forwarded. */
+        void release() {
+            mClient = null;
+            mService = null;
+            if (mBound) {
+                mBound = false;
+                mContext.unbindService(this);
+            }
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mService = service;
+            if (mClient != null) {
+                mClient.onServiceConnected(name, service);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+            if (mClient != null) {
+                mClient.onServiceDisconnected(name);
+            }
+        }
+    }
+}
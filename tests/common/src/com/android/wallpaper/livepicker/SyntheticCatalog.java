@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+
+import android.Manifest;
+import android.app.WallpaperInfo;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Bundle;
+import android.service.wallpaper.WallpaperService;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A made-up catalog of live wallpapers, one per package, for measuring the picker without real
+ * wallpaper packages. It is served by a stand-in package manager, and every wallpaper declares
+ * the same {@code <wallpaper>} meta-data, supplied by the test, which {@link WallpaperInfo}
+ * parses as it would that of a real package. Resources the meta-data refers to, such as the
+ * author and description, are resolved from the test's resources.
+ *
+ * <p>Labels are generated in a shuffled order from a fixed seed, so that sorting has work to do
+ * and every run sees the same catalog. Optionally, some wallpapers fail to parse, parsing every
+ * package takes a while, and every wallpaper has a thumbnail of a given size.
+ */
+class SyntheticCatalog {
+    static final String PACKAGE_PREFIX = "com.android.wallpaper.synthetic.p";
+    static final String SERVICE_NAME = ".SyntheticWallpaperService";
+
+    private static final int META_DATA_RESOURCE = 0x7f030001;
+    private static final long SEED = 42;
+
+    private static final String[] ADJECTIVES = {
+            "Amber", "Bright", "Calm", "Drifting", "Electric", "Frozen", "Golden", "Hidden",
+            "Inky", "Jade", "Kinetic", "Lunar", "Misty", "Neon", "Opal", "Polar", "Quiet",
+            "Rolling", "Silent", "Twilight", "Urban", "Velvet", "Wild", "Zen"
+    };
+    private static final String[] NOUNS = {
+            "Aurora", "Bubbles", "Clouds", "Dunes", "Embers", "Fields", "Galaxy", "Harbor",
+            "Islands", "Jungle", "Kelp", "Lagoon", "Meadow", "Nebula", "Ocean", "Particles",
+            "Rain", "Stars", "Tides", "Waves"
+    };
+
+    /** Opens the {@code <wallpaper>} meta-data of every wallpaper of the catalog. */
+    interface MetaData {
+        XmlResourceParser open();
+    }
+
+    private final List<ResolveInfo> mServices;
+    private final Map<String, PackageInfo> mPackageInfos = new HashMap<>();
+    private final PackageManager mPackageManager;
+    private final Resources mResources;
+    private final MetaData mMetaData;
+
+    private int mFailureInterval;
+    private long mLatencyMillis;
+    private final AtomicInteger mParsing = new AtomicInteger();
+    private final AtomicInteger mPeakParsing = new AtomicInteger();
+    /** Serves the thumbnail image of every wallpaper, or null to serve the test's own. */
+    private Resources mThumbnailResources;
+
+    /**
+     * @param res resources of the test, which the meta-data refers to
+     * @param metaData the meta-data of every wallpaper, such as
+     *         {@code <wallpaper android:thumbnail="@android:drawable/ic_menu_gallery" />}; the
+     *         thumbnail it points to is never loaded, but replaced by {@link #setThumbnails}
+     */
+    SyntheticCatalog(int size, Resources res, MetaData metaData) {
+        mResources = res;
+        mMetaData = metaData;
+        mServices = new ArrayList<>(size);
+        Random random = new Random(SEED);
+        for (int i = 0; i < size; i++) {
+            String packageName = PACKAGE_PREFIX + i;
+            String label = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " "
+                    + NOUNS[random.nextInt(NOUNS.length)] + " " + random.nextInt(size * 10);
+            mServices.add(createService(packageName, label));
+
+            PackageInfo packageInfo = new PackageInfo();
+            packageInfo.packageName = packageName;
+            packageInfo.versionCode = 1;
+            packageInfo.lastUpdateTime = 1;
+            mPackageInfos.put(packageName, packageInfo);
+        }
+        mPackageManager = createPackageManager();
+    }
+
+    int size() {
+        return mServices.size();
+    }
+
+    /**
+     * Makes every {@code interval}th wallpaper fail to parse with an
+     * {@link XmlPullParserException}, as one with malformed meta-data does. Zero for none.
+     */
+    SyntheticCatalog setFailureInterval(int interval) {
+        mFailureInterval = interval;
+        return this;
+    }
+
+    /** Returns how many wallpapers fail to parse. */
+    int getFailureCount() {
+        return mFailureInterval > 0 ? size() / mFailureInterval : 0;
+    }
+
+    /** Makes parsing every package take at least the given time, as a slow package does. */
+    SyntheticCatalog setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * Gives every wallpaper a PNG thumbnail of the given size, served for whatever thumbnail
+     * the meta-data declares.
+     */
+    SyntheticCatalog setThumbnails(int width, int height) {
+        mThumbnailResources = new SyntheticResources(mResources, createImage(width, height));
+        return this;
+    }
+
+    /** Returns the wallpaper services, in the order the package manager returns them. */
+    List<ResolveInfo> getServices() {
+        return new ArrayList<>(mServices);
+    }
+
+    PackageManager getPackageManager() {
+        return mPackageManager;
+    }
+
+    /**
+     * Returns a context that serves this catalog from its package manager, and is its own
+     * application context so that the picker's singletons pick the catalog up too.
+     */
+    Context createContext(Context base) {
+        return new ContextWrapper(base) {
+            @Override
+            public PackageManager getPackageManager() {
+                return mPackageManager;
+            }
+
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+        };
+    }
+
+    /**
+     * Returns a parser that creates the wallpaper info of this catalog's services, failing and
+     * taking as long as the catalog is set up to.
+     */
+    LiveWallpaperLoader.InfoParser getInfoParser() {
+        return (context, resolveInfo) -> {
+            int parsing = mParsing.incrementAndGet();
+            mPeakParsing.accumulateAndGet(parsing, Math::max);
+            try {
+                if (mLatencyMillis > 0) {
+                    try {
+                        // Not SystemClock.sleep(), which does not return early when the load
+                        // is cancelled.
+                        Thread.sleep(mLatencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while parsing", e);
+                    }
+                }
+                if (isFailing(resolveInfo)) {
+                    throw new XmlPullParserException(
+                            "Meta-data does not start with wallpaper tag");
+                }
+                return createWallpaperInfo(context, resolveInfo);
+            } finally {
+                mParsing.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Returns the most wallpapers the parser has been parsing at the same time since the last
+     * call, and starts counting again.
+     */
+    int takePeakConcurrentParses() {
+        return mPeakParsing.getAndSet(0);
+    }
+
+    private boolean isFailing(ResolveInfo resolveInfo) {
+        if (mFailureInterval <= 0) {
+            return false;
+        }
+        int index = Integer.parseInt(
+                resolveInfo.serviceInfo.packageName.substring(PACKAGE_PREFIX.length()));
+        return (index + 1) % mFailureInterval == 0;
+    }
+
+    /**
+     * Deletes the snapshot and thumbnails cached by earlier runs, so that the next load starts
+     * from scratch.
+     */
+    static void clearCache(Context context) {
+        delete(context.getCacheDir(), false);
+    }
+
+    private static void delete(File file, boolean self) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child, true);
+            }
+        }
+        if (self) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the wallpaper info of the given service, parsed by {@link WallpaperInfo} from the
+     * meta-data through the stand-in package manager.
+     */
+    WallpaperInfo createWallpaperInfo(Context context, ResolveInfo resolveInfo)
+            throws XmlPullParserException, IOException {
+        return new WallpaperInfo(createContext(context), resolveInfo);
+    }
+
+    /** Returns a PNG of the given size, with a gradient so that it does not compress away. */
+    private static byte[] createImage(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, 0xff3f51b5, 0xffff9800,
+                Shader.TileMode.CLAMP));
+        new Canvas(bitmap).drawPaint(paint);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static ResolveInfo createService(String packageName, String label) {
+        ApplicationInfo applicationInfo = new ApplicationInfo();
+        applicationInfo.packageName = packageName;
+        applicationInfo.enabled = true;
+
+        ServiceInfo serviceInfo = new ServiceInfo();
+        serviceInfo.packageName = packageName;
+        serviceInfo.name = packageName + SERVICE_NAME;
+        serviceInfo.applicationInfo = applicationInfo;
+        serviceInfo.permission = Manifest.permission.BIND_WALLPAPER;
+        serviceInfo.enabled = true;
+        serviceInfo.exported = true;
+
+        serviceInfo.metaData = new Bundle();
+        serviceInfo.metaData.putInt(WallpaperService.SERVICE_META_DATA, META_DATA_RESOURCE);
+
+        ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.serviceInfo = serviceInfo;
+        resolveInfo.nonLocalizedLabel = label;
+        return resolveInfo;
+    }
+
+    private PackageManager createPackageManager() {
+        PackageManager pm = mock(PackageManager.class);
+        doAnswer(invocation -> {
+            String packageName = ((Intent) invocation.getArguments()[0]).getPackage();
+            List<ResolveInfo> services = new ArrayList<>();
+            for (ResolveInfo service : mServices) {
+                if (packageName == null || packageName.equals(service.serviceInfo.packageName)) {
+                    services.add(service);
+                }
+            }
+            return services;
+        }).when(pm).queryIntentServices(any(Intent.class), anyInt());
+        try {
+            doAnswer(invocation -> {
+                PackageInfo packageInfo = mPackageInfos.get(invocation.getArguments()[0]);
+                if (packageInfo == null) {
+                    throw new NameNotFoundException((String) invocation.getArguments()[0]);
+                }
+                return packageInfo;
+            }).when(pm).getPackageInfo(anyString(), anyInt());
+            // WallpaperInfo reads the attributes of the meta-data with them too.
+            doAnswer(invocation -> mThumbnailResources != null ? mThumbnailResources : mResources)
+                    .when(pm).getResourcesForApplication(any(ApplicationInfo.class));
+        } catch (NameNotFoundException e) {
+            throw new AssertionError(e);
+        }
+        doAnswer(invocation -> mMetaData.open())
+                .when(pm).getXml(anyString(), eq(META_DATA_RESOURCE), any(ApplicationInfo.class));
+        // As loadThumbnail() does, at full resolution.
+        doAnswer(invocation -> {
+            if (mThumbnailResources == null) {
+                return null;
+            }
+            return new BitmapDrawable(mThumbnailResources, BitmapFactory.decodeStream(
+                    mThumbnailResources.openRawResource((Integer) invocation.getArguments()[1])));
+        }).when(pm).getDrawable(anyString(), anyInt(), any(ApplicationInfo.class));
+        // Such as the author and description, made different for every package.
+        doAnswer(invocation -> mResources.getText((Integer) invocation.getArguments()[1])
+                + " " + invocation.getArguments()[0])
+                .when(pm).getText(anyString(), anyInt(), any(ApplicationInfo.class));
+        return pm;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import android.content.res.Resources;
+import android.util.TypedValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Stand-in for the resources of a synthetic wallpaper package, which serves the same image for
+ * every raw resource, so that thumbnails are decoded the same way as those of a real package.
+ */
+class SyntheticResources extends Resources {
+    private final byte[] mImage;
+
+    /**
+     * @param base resources to take the assets, display metrics and configuration from
+     * @param image the encoded image
+     */
+    SyntheticResources(Resources base, byte[] image) {
+        super(base.getAssets(), base.getDisplayMetrics(), base.getConfiguration());
+        mImage = image;
+    }
+
+    @Override
+    public InputStream openRawResource(int id) {
+        return new ByteArrayInputStream(mImage);
+    }
+
+    @Override
+    public InputStream openRawResource(int id, TypedValue value) {
+        // Not scaled for the display density, as with a drawable-nodpi image.
+        value.density = TypedValue.DENSITY_NONE;
+        return new ByteArrayInputStream(mImage);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a large synthetic catalog into the list, the way the picker does, and reports how long
+ * it takes until the first rows show and until every wallpaper is loaded, the peak heap while
+ * loading, and how long the main thread was stalled. The list is laid out on every frame, at
+ * the size of a phone screen, so that binding the visible rows counts too.
+ *
+ * <p>Results are sent as instrumentation status and logged.
+ */
+@RunWith(Parameterized.class)
+public class CatalogLoadTest {
+    private static final String LOG_TAG = "CatalogLoadTest";
+
+    private static final long TIMEOUT_MINUTES = 5;
+    /** Every this many wallpapers, one fails to parse. */
+    private static final int FAILURE_INTERVAL = 50;
+    private static final int LIST_WIDTH = 1080;
+    private static final int LIST_HEIGHT = 1920;
+
+    @Parameterized.Parameters(name = "{0} wallpapers, {1}px thumbnails, {2}ms latency")
+    public static Collection<Object[]> getParameters() {
+        return Arrays.asList(new Object[][] {
+                {200, 512, 0},
+                {1000, 512, 0},
+                {3000, 512, 0},
+                {1000, 2048, 0},
+                {1000, 512, 20},
+        });
+    }
+
+    private final int mSize;
+    private final int mThumbnailSize;
+    private final long mLatencyMillis;
+
+    private Instrumentation mInstrumentation;
+    private SyntheticCatalog mCatalog;
+    private Context mContext;
+
+    // Only touched on the main thread until the load has finished.
+    private LiveWallpaperListAdapter mAdapter;
+    private RecyclerView mList;
+    private StallMonitor mStallMonitor;
+    private long mStartTime;
+    private long mFirstRowsTime;
+    private long mPopulatedTime;
+    private final CountDownLatch mPopulated = new CountDownLatch(1);
+
+    public CatalogLoadTest(int size, int thumbnailSize, long latencyMillis) {
+        mSize = size;
+        mThumbnailSize = thumbnailSize;
+        mLatencyMillis = latencyMillis;
+    }
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        Context targetContext = InstrumentationRegistry.getTargetContext();
+        // Where Mockito generates the stand-in package manager.
+        System.setProperty("dexmaker.dexcache", targetContext.getCacheDir().getPath());
+
+        Resources testRes = InstrumentationRegistry.getContext().getResources();
+        int metaDataXml = com.android.wallpaper.livepicker.tests.R.xml.synthetic_wallpaper;
+        mCatalog = new SyntheticCatalog(mSize, testRes, () -> testRes.getXml(metaDataXml))
+                .setFailureInterval(FAILURE_INTERVAL)
+                .setLatencyMillis(mLatencyMillis)
+                .setThumbnails(mThumbnailSize, mThumbnailSize);
+        mContext = mCatalog.createContext(targetContext);
+        SyntheticCatalog.clearCache(mContext);
+        LiveWallpaperLoader.setInfoParserForTesting(mCatalog.getInfoParser());
+        mInstrumentation.runOnMainSync(CatalogRepository::resetForTesting);
+    }
+
+    @After
+    public void tearDown() {
+        mInstrumentation.runOnMainSync(() -> {
+            if (mAdapter != null) {
+                mAdapter.destroy();
+            }
+            CatalogRepository.resetForTesting();
+        });
+        LiveWallpaperLoader.setInfoParserForTesting(null);
+    }
+
+    @Test
+    public void populate() throws Exception {
+        HeapSampler heap = new HeapSampler();
+        heap.start();
+        mInstrumentation.runOnMainSync(this::startLoad);
+        assertTrue("Timed out loading " + mSize + " wallpapers",
+                mPopulated.await(TIMEOUT_MINUTES, TimeUnit.MINUTES));
+        heap.stop();
+        mInstrumentation.runOnMainSync(() -> {
+            Choreographer.getInstance().removeFrameCallback(mLayoutFrame);
+            mStallMonitor.stop();
+        });
+
+        assertEquals(mSize - mCatalog.getFailureCount(), mAdapter.getItemCount());
+
+        Bundle results = new Bundle();
+        results.putInt("wallpapers", mSize);
+        results.putInt("thumbnail_px", mThumbnailSize);
+        results.putLong("latency_ms", mLatencyMillis);
+        results.putLong("first_rows_ms", mFirstRowsTime - mStartTime);
+        results.putLong("populate_ms", mPopulatedTime - mStartTime);
+        results.putLong("peak_java_heap_kb", heap.getPeakJavaBytes() / 1024);
+        results.putLong("peak_native_heap_kb", heap.getPeakNativeBytes() / 1024);
+        results.putLong("stalled_ms", mStallMonitor.getStalledMillis());
+        results.putLong("longest_stall_ms", mStallMonitor.getLongestStallMillis());
+        Log.i(LOG_TAG, results.toString());
+        mInstrumentation.sendStatus(0, results);
+    }
+
+    private void startLoad() {
+        mStallMonitor = new StallMonitor();
+        mStallMonitor.start();
+        mStartTime = SystemClock.uptimeMillis();
+
+        mAdapter = new LiveWallpaperListAdapter(mContext);
+        mList = new RecyclerView(mContext);
+        mList.setLayoutManager(new LinearLayoutManager(mContext));
+        mList.setAdapter(mAdapter);
+        List<LiveWallpaperInfo> rows = CatalogRepository.getInstance(mContext).addObserver(
+                new CatalogRepository.Observer() {
+                    @Override
+                    public void onCatalogChanged(List<LiveWallpaperInfo> catalog) {
+                        if (mFirstRowsTime == 0 && !catalog.isEmpty()) {
+                            mFirstRowsTime = SystemClock.uptimeMillis();
+                        }
+                    }
+
+                    @Override
+                    public void onWallpaperLoaded(LiveWallpaperInfo wallpaper) {
+                    }
+
+                    @Override
+                    public void onWallpaperRemoved(LiveWallpaperInfo wallpaper) {
+                    }
+
+                    @Override
+                    public void onPackageChanged(String packageName,
+                            List<LiveWallpaperInfo> wallpapers) {
+                    }
+
+                    @Override
+                    public void onLoadFinished() {
+                        CatalogRepository.getInstance(mContext).removeObserver(this);
+                        mPopulatedTime = SystemClock.uptimeMillis();
+                        mPopulated.countDown();
+                    }
+                });
+        if (!rows.isEmpty()) {
+            mFirstRowsTime = mStartTime;
+        }
+        Choreographer.getInstance().postFrameCallback(mLayoutFrame);
+    }
+
+    /** Lays the list out on every frame, as it would be if it were on screen. */
+    private final Choreographer.FrameCallback mLayoutFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mList.measure(View.MeasureSpec.makeMeasureSpec(LIST_WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(LIST_HEIGHT, View.MeasureSpec.EXACTLY));
+            mList.layout(0, 0, LIST_WIDTH, LIST_HEIGHT);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import android.os.Debug;
+
+/**
+ * Samples the Java and native heap in use on a background thread while it runs, and keeps the
+ * highest values seen above those at the start. Bitmap pixels live in the native heap.
+ */
+class HeapSampler implements Runnable {
+    private static final long INTERVAL_MS = 5;
+
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    // Guarded by this.
+    private long mBaselineJavaBytes;
+    private long mBaselineNativeBytes;
+    private long mPeakJavaBytes;
+    private long mPeakNativeBytes;
+
+    /** Collects garbage, so that the baseline does not count it, and starts sampling. */
+    void start() {
+        collectGarbage();
+        synchronized (this) {
+            mBaselineJavaBytes = getJavaBytes();
+            mBaselineNativeBytes = Debug.getNativeHeapAllocatedSize();
+            mPeakJavaBytes = mBaselineJavaBytes;
+            mPeakNativeBytes = mBaselineNativeBytes;
+        }
+        mRunning = true;
+        mThread = new Thread(this, "HeapSampler");
+        mThread.start();
+    }
+
+    void stop() throws InterruptedException {
+        mRunning = false;
+        mThread.interrupt();
+        mThread.join();
+        sample();
+    }
+
+    /** Returns the highest Java heap in use above the baseline, in bytes. */
+    synchronized long getPeakJavaBytes() {
+        return mPeakJavaBytes - mBaselineJavaBytes;
+    }
+
+    /** Returns the highest native heap in use above the baseline, in bytes. */
+    synchronized long getPeakNativeBytes() {
+        return mPeakNativeBytes - mBaselineNativeBytes;
+    }
+
+    @Override
+    public void run() {
+        while (mRunning) {
+            sample();
+            try {
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void sample() {
+        long javaBytes = getJavaBytes();
+        long nativeBytes = Debug.getNativeHeapAllocatedSize();
+        synchronized (this) {
+            mPeakJavaBytes = Math.max(mPeakJavaBytes, javaBytes);
+            mPeakNativeBytes = Math.max(mPeakNativeBytes, nativeBytes);
+        }
+    }
+
+    private static long getJavaBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static void collectGarbage() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.view.Choreographer;
+
+/**
+ * Measures how long the main thread is stalled while it is being watched, by looking at the gaps
+ * between consecutive frames. Any time a frame is late by more than a whole frame interval
+ * counts as stalled.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class StallMonitor implements Choreographer.FrameCallback {
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    private boolean mRunning;
+    private long mLastFrameNanos;
+    private long mStalledNanos;
+    private long mLongestStallNanos;
+
+    void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mLastFrameNanos = 0;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    void stop() {
+        if (mRunning) {
+            mRunning = false;
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+
+    long getStalledMillis() {
+        return mStalledNanos / 1000000;
+    }
+
+    long getLongestStallMillis() {
+        return mLongestStallNanos / 1000000;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mLastFrameNanos != 0) {
+            long late = frameTimeNanos - mLastFrameNanos - FRAME_INTERVAL_NANOS;
+            if (late >= FRAME_INTERVAL_NANOS) {
+                mStalledNanos += late;
+                mLongestStallNanos = Math.max(mLongestStallNanos, late);
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mChoreographer.postFrameCallback(this);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Holds the thumbnails of every wallpaper of a synthetic catalog, as the list did before and as
+ * it does now, and reports the bytes they retain and the peak heap while they were created.
+ *
+ * <p>Before, each thumbnail was the drawable returned by {@code WallpaperInfo.loadThumbnail()},
+ * at the full resolution of the image. Now it is decoded by {@link ThumbnailDecoder} at the size
+ * it is displayed at. Results are sent as instrumentation status and logged.
+ */
+@RunWith(Parameterized.class)
+public class ThumbnailHeapTest {
+    private static final String LOG_TAG = "ThumbnailHeapTest";
+
+    private static final int SIZE = 200;
+
+    @Parameterized.Parameters(name = "{0}px thumbnails")
+    public static Collection<Object[]> getParameters() {
+        return Arrays.asList(new Object[][] {
+                {512},
+                {1024},
+        });
+    }
+
+    private final int mThumbnailSize;
+
+    private Instrumentation mInstrumentation;
+    private SyntheticCatalog mCatalog;
+    private Context mContext;
+
+    public ThumbnailHeapTest(int thumbnailSize) {
+        mThumbnailSize = thumbnailSize;
+    }
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        Context targetContext = InstrumentationRegistry.getTargetContext();
+        // Where Mockito generates the stand-in package manager.
+        System.setProperty("dexmaker.dexcache", targetContext.getCacheDir().getPath());
+
+        Resources testRes = InstrumentationRegistry.getContext().getResources();
+        int metaDataXml = com.android.wallpaper.livepicker.tests.R.xml.synthetic_wallpaper;
+        mCatalog = new SyntheticCatalog(SIZE, testRes, () -> testRes.getXml(metaDataXml))
+                .setThumbnails(mThumbnailSize, mThumbnailSize);
+        mContext = mCatalog.createContext(targetContext);
+        SyntheticCatalog.clearCache(mContext);
+    }
+
+    @Test
+    public void retainedThumbnails() throws Exception {
+        PackageManager pm = mCatalog.getPackageManager();
+        List<ResolveInfo> services = mCatalog.getServices();
+
+        HeapSampler beforeHeap = new HeapSampler();
+        beforeHeap.start();
+        List<Drawable> drawables = new ArrayList<>(SIZE);
+        long beforeBytes = 0;
+        for (ResolveInfo service : services) {
+            Drawable thumb = mCatalog.createWallpaperInfo(mContext, service).loadThumbnail(pm);
+            drawables.add(thumb);
+            if (thumb instanceof BitmapDrawable) {
+                beforeBytes += ((BitmapDrawable) thumb).getBitmap().getAllocationByteCount();
+            }
+        }
+        beforeHeap.stop();
+        assertEquals(SIZE, drawables.size());
+        drawables.clear();
+
+        ThumbnailDecoder decoder = new ThumbnailDecoder(mContext, BitmapPool.getInstance());
+        HeapSampler afterHeap = new HeapSampler();
+        afterHeap.start();
+        List<Bitmap> bitmaps = new ArrayList<>(SIZE);
+        long afterBytes = 0;
+        for (ResolveInfo service : services) {
+            Bitmap thumbnail = decoder.decode(service.serviceInfo);
+            bitmaps.add(thumbnail);
+            if (thumbnail != null) {
+                afterBytes += thumbnail.getAllocationByteCount();
+            }
+        }
+        afterHeap.stop();
+        for (Bitmap thumbnail : bitmaps) {
+            BitmapPool.getInstance().release(thumbnail);
+        }
+
+        Bundle results = new Bundle();
+        results.putInt("wallpapers", SIZE);
+        results.putInt("thumbnail_px", mThumbnailSize);
+        results.putInt("displayed_width_px", decoder.getWidth());
+        results.putInt("displayed_height_px", decoder.getHeight());
+        results.putLong("before_retained_kb", beforeBytes / 1024);
+        results.putLong("before_peak_java_heap_kb", beforeHeap.getPeakJavaBytes() / 1024);
+        results.putLong("before_peak_native_heap_kb", beforeHeap.getPeakNativeBytes() / 1024);
+        results.putLong("after_retained_kb", afterBytes / 1024);
+        results.putLong("after_peak_java_heap_kb", afterHeap.getPeakJavaBytes() / 1024);
+        results.putLong("after_peak_native_heap_kb", afterHeap.getPeakNativeBytes() / 1024);
+        Log.i(LOG_TAG, results.toString());
+        mInstrumentation.sendStatus(0, results);
+
+        assertTrue("Every wallpaper should have a thumbnail", afterBytes > 0);
+        assertTrue("Decoded thumbnails retain " + afterBytes + " bytes, full-resolution ones "
+                + beforeBytes, afterBytes < beforeBytes);
+    }
+}
@@ -0,0 +1,37 @@
+#
+# Copyright (C) 2017 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+LOCAL_PATH := $(call my-dir)
+
+########################
+# Tests of the plain Java parts of LiveWallpapersPicker, which run on the host JVM:
+# make LiveWallpapersPickerHostTests && java -cp <jar>:<junit> org.junit.runner.JUnitCore ...
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := LiveWallpapersPickerHostTests
+
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    ../../src/com/android/wallpaper/livepicker/ProcStat.java
+
+# Recorded /proc files.
+LOCAL_JAVA_RESOURCE_DIRS := res
+
+LOCAL_STATIC_JAVA_LIBRARIES := junit-host
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests {@link ProcStat} against /proc files recorded from real processes, and from one whose
+ * command name was made to look like the fields that follow it.
+ */
+@RunWith(JUnit4.class)
+public class ProcStatTest {
+    @Test
+    public void parseCpuTicks_addsUserAndSystemTime() throws IOException {
+        assertEquals(1373 + 489, ProcStat.parseCpuTicks(readFixture("wallpaper.stat")));
+    }
+
+    @Test
+    public void parseCpuTicks_commandWithSpacesAndParenthesis() throws IOException {
+        // The command name is "app) R 1 2 3 4".
+        assertEquals(250 + 75, ProcStat.parseCpuTicks(readFixture("spaces.stat")));
+    }
+
+    @Test
+    public void parseCpuTicks_kernelThread() throws IOException {
+        assertEquals(7, ProcStat.parseCpuTicks(readFixture("kthread.stat")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseCpuTicks_noCommand() {
+        ProcStat.parseCpuTicks("2817 S 636 636 0 0 -1 1077952832 51530 0 196 0 1373 489");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseCpuTicks_truncated() {
+        ProcStat.parseCpuTicks("2817 (ndroid.wallpaper) S 636 636 0 0 -1 1077952832 51530");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseCpuTicks_empty() {
+        ProcStat.parseCpuTicks("");
+    }
+
+    @Test
+    public void parseRssKb() throws IOException {
+        assertEquals(84512, ProcStat.parseRssKb(readFixture("wallpaper.status")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRssKb_kernelThreadHasNoRss() throws IOException {
+        ProcStat.parseRssKb(readFixture("kthread.status"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRssKb_empty() {
+        ProcStat.parseRssKb("");
+    }
+
+    private String readFixture(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/proc/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+#
+# Copyright (C) 2017 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+LOCAL_PATH := $(call my-dir)
+
+########################
+# Tests and benchmarks that run on the host JVM, against the classes of LiveWallpapersPicker.
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := LiveWallpapersPickerRoboTests
+
+LOCAL_MODULE_TAGS := optional
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    $(call all-java-files-under, ../common/src)
+
+LOCAL_JAVA_RESOURCE_DIRS := config
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    mockito-robolectric-prebuilt
+
+LOCAL_JAVA_LIBRARIES := \
+    junit \
+    platform-robolectric-3.4.2-prebuilt \
+    sdk_vcurrent
+
+LOCAL_INSTRUMENTATION_FOR := LiveWallpapersPicker
+
+include $(BUILD_STATIC_JAVA_LIBRARY)
+
+########################
+# Runs the tests above: make RunLiveWallpapersPickerRoboTests
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := RunLiveWallpapersPickerRoboTests
+
+LOCAL_SDK_VERSION := current
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    LiveWallpapersPickerRoboTests
+
+LOCAL_TEST_PACKAGE := LiveWallpapersPicker
+
+include prebuilts/misc/common/robolectric/3.4.2/run_robotests.mk
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times the hot paths of loading and showing the catalog on the host, without a device, for
+ * catalogs of 10 to 2000 wallpapers: sorting the rows, loading the info of every wallpaper,
+ * rendering placeholder thumbnails and binding rows. Each prints one line with the median,
+ * fastest and slowest of {@link #RUNS} runs.
+ *
+ * <p>Drawing is simulated on the host, so the placeholder times only cover the picker's own
+ * work, and none of the times are comparable to those on a device; they are meant for
+ * comparing changes to the picker against each other.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class CatalogBenchmark {
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 5;
+    /** About as many rows as fit on a screen, which the list keeps rebinding. */
+    private static final int HOLDER_COUNT = 12;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} wallpapers")
+    public static Collection<Object[]> getSizes() {
+        return Arrays.asList(new Object[][] {{10}, {100}, {500}, {1000}, {2000}});
+    }
+
+    private final int mSize;
+    private SyntheticCatalog mCatalog;
+    private Context mContext;
+
+    public CatalogBenchmark(int size) {
+        mSize = size;
+    }
+
+    @Before
+    public void setUp() {
+        mCatalog = new SyntheticCatalog(mSize,
+                RuntimeEnvironment.application.getResources(), new HostMetaData());
+        mContext = mCatalog.createContext(RuntimeEnvironment.application);
+        SyntheticCatalog.clearCache(mContext);
+        LiveWallpaperLoader.setInfoParserForTesting(mCatalog.getInfoParser());
+        // Results posted by the background threads wait until the benchmark runs them.
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        CatalogRepository.resetForTesting();
+        LiveWallpaperLoader.setInfoParserForTesting(null);
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void sort() {
+        Collator collator = Collator.getInstance();
+        List<LiveWallpaperInfo> wallpapers = new ArrayList<>(mSize);
+        for (ResolveInfo service : mCatalog.getServices()) {
+            CharSequence label = service.loadLabel(mCatalog.getPackageManager());
+            wallpapers.add(LiveWallpaperInfo.placeholder(service, label,
+                    collator.getCollationKey(label.toString())));
+        }
+
+        long[] nanos = new long[RUNS];
+        for (int run = -WARMUP_RUNS; run < RUNS; run++) {
+            // The services come in the order of their packages, not of their labels.
+            List<LiveWallpaperInfo> unsorted = new ArrayList<>(wallpapers);
+            long start = System.nanoTime();
+            Collections.sort(unsorted, LiveWallpaperInfo.ORDER);
+            if (run >= 0) {
+                nanos[run] = System.nanoTime() - start;
+            }
+        }
+        report("sort", nanos);
+    }
+
+    /**
+     * Times a load from the start until the placeholder rows are sorted, which covers querying
+     * the services and labeling them, and until the info of every wallpaper is loaded.
+     */
+    @Test
+    public void load() {
+        long[] sortedNanos = new long[RUNS];
+        long[] loadedNanos = new long[RUNS];
+        for (int run = -WARMUP_RUNS; run < RUNS; run++) {
+            SyntheticCatalog.clearCache(mContext);
+            LoadRecorder recorder = new LoadRecorder();
+            LiveWallpaperLoader loader = new LiveWallpaperLoader(mContext, recorder);
+            long start = System.nanoTime();
+            loader.load(false);
+            UiThreadHelper.runUntil(recorder::isFinished);
+            loader.cancel();
+            assertEquals(mSize, recorder.loadedCount);
+            if (run >= 0) {
+                sortedNanos[run] = recorder.sortedNanos - start;
+                loadedNanos[run] = recorder.finishedNanos - start;
+            }
+        }
+        report("enumerate+sort", sortedNanos);
+        report("load", loadedNanos);
+    }
+
+    @Test
+    public void renderPlaceholders() {
+        Resources res = mContext.getResources();
+        BitmapPool pool = BitmapPool.getInstance();
+        PlaceholderRenderer renderer = new PlaceholderRenderer(res, pool,
+                res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_width),
+                res.getDimensionPixelSize(R.dimen.live_wallpaper_thumbnail_height));
+        List<ResolveInfo> services = mCatalog.getServices();
+
+        long[] nanos = new long[RUNS];
+        for (int run = -WARMUP_RUNS; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (ResolveInfo service : services) {
+                // Pooled again, as thumbnails evicted from the memory cache are.
+                pool.release(renderer.render(service.nonLocalizedLabel));
+            }
+            if (run >= 0) {
+                nanos[run] = System.nanoTime() - start;
+            }
+        }
+        report("placeholders", nanos);
+    }
+
+    /** Times binding every row once, into a screenful of recycled rows as the list does. */
+    @Test
+    public void bind() {
+        LiveWallpaperListAdapter adapter = new LiveWallpaperListAdapter(mContext);
+        CatalogRepository repository = CatalogRepository.getInstance(mContext);
+        UiThreadHelper.runUntil(() -> !repository.isLoading());
+        assertEquals(mSize, adapter.getItemCount());
+
+        RecyclerView parent = new RecyclerView(mContext);
+        parent.setLayoutManager(new LinearLayoutManager(mContext));
+        LiveWallpaperListAdapter.ViewHolder[] holders =
+                new LiveWallpaperListAdapter.ViewHolder[HOLDER_COUNT];
+        for (int i = 0; i < HOLDER_COUNT; i++) {
+            holders[i] = adapter.onCreateViewHolder(parent, 0);
+        }
+
+        long[] nanos = new long[RUNS];
+        for (int run = -WARMUP_RUNS; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int position = 0; position < mSize; position++) {
+                LiveWallpaperListAdapter.ViewHolder holder = holders[position % HOLDER_COUNT];
+                adapter.onViewRecycled(holder);
+                adapter.onBindViewHolder(holder, position);
+            }
+            if (run >= 0) {
+                nanos[run] = System.nanoTime() - start;
+            }
+        }
+        adapter.destroy();
+        report("bind", nanos);
+    }
+
+    private void report(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US,
+                "CatalogBenchmark: %s of %d wallpapers: median=%dus min=%dus max=%dus",
+                name, mSize, sorted[sorted.length / 2] / 1000, sorted[0] / 1000,
+                sorted[sorted.length - 1] / 1000));
+    }
+}
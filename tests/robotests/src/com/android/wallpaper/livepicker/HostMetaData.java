@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.wallpaper.livepicker;
+
+import android.content.res.XmlResourceParser;
+
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.XmlResourceParserImpl;
+import org.w3c.dom.Document;
+
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * The {@code <wallpaper>} meta-data of {@link SyntheticCatalog} on the host, where the tests
+ * have no resources of their own: it is a Java resource, opened as Robolectric opens the XML
+ * resources of the picker.
+ */
+class HostMetaData implements SyntheticCatalog.MetaData {
+    private static final String FILE_NAME = "synthetic_wallpaper.xml";
+
+    @Override
+    public XmlResourceParser open() {
+        try (InputStream in = HostMetaData.class.getResourceAsStream("/" + FILE_NAME)) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            Document document = builder.parse(in);
+            String packageName = RuntimeEnvironment.application.getPackageName();
+            return new XmlResourceParserImpl(document, FILE_NAME, packageName, packageName,
+                    RuntimeEnvironment.getAppResourceTable());
+        } catch (Exception e) {
+            throw new AssertionError("Cannot read " + FILE_NAME, e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.WallpaperManager;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.service.wallpaper.WallpaperService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link LiveWallpaperChange} leaves parsing the wallpaper to the background, so
+ * that a wallpaper that is slow to parse does not hold up the main thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LiveWallpaperChangeTest {
+    private final AtomicInteger mParseCount = new AtomicInteger();
+    private ComponentName mComponent;
+
+    @Before
+    public void setUp() {
+        SyntheticCatalog catalog = new SyntheticCatalog(1,
+                RuntimeEnvironment.application.getResources(), new HostMetaData());
+        LiveWallpaperLoader.InfoParser parser = catalog.getInfoParser();
+        LiveWallpaperLoader.setInfoParserForTesting((context, resolveInfo) -> {
+            mParseCount.incrementAndGet();
+            return parser.parse(context, resolveInfo);
+        });
+
+        // The activity resolves the component with its own package manager.
+        ResolveInfo service = catalog.getServices().get(0);
+        mComponent = new ComponentName(service.serviceInfo.packageName, service.serviceInfo.name);
+        shadowOf(RuntimeEnvironment.application.getPackageManager()).addResolveInfoForIntent(
+                new Intent(WallpaperService.SERVICE_INTERFACE)
+                        .setPackage(mComponent.getPackageName()),
+                service);
+
+        // Otherwise AsyncTasks and their results run right away, on the calling thread.
+        Robolectric.getBackgroundThreadScheduler().pause();
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        CatalogRepository.resetForTesting();
+        LiveWallpaperLoader.setInfoParserForTesting(null);
+        ShadowLooper.unPauseMainLooper();
+        Robolectric.getBackgroundThreadScheduler().unPause();
+    }
+
+    @Test
+    public void create_resolvesInBackground() {
+        ActivityController<LiveWallpaperChange> controller = buildActivity().create();
+        assertEquals(0, mParseCount.get());
+
+        Robolectric.flushBackgroundThreadScheduler();
+        assertEquals(1, mParseCount.get());
+        // Its result is dropped, since the activity is gone by the time it is delivered.
+        controller.destroy();
+    }
+
+    private ActivityController<LiveWallpaperChange> buildActivity() {
+        Intent intent = new Intent(WallpaperManager.ACTION_CHANGE_LIVE_WALLPAPER)
+                .putExtra(WallpaperManager.EXTRA_LIVE_WALLPAPER_COMPONENT, mComponent);
+        return Robolectric.buildActivity(LiveWallpaperChange.class, intent);
+    }
+}
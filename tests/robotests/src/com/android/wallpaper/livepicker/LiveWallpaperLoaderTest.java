@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Checks that a catalog whose packages are slow to parse is parsed by several threads of the
+ * pool at once, rather than one wallpaper after another, as the picker used to.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LiveWallpaperLoaderTest {
+    private static final int SIZE = 100;
+    private static final long LATENCY_MS = 20;
+    private static final int FAILURE_INTERVAL = 10;
+
+    private SyntheticCatalog mCatalog;
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mCatalog = new SyntheticCatalog(SIZE,
+                RuntimeEnvironment.application.getResources(), new HostMetaData())
+                .setLatencyMillis(LATENCY_MS)
+                .setFailureInterval(FAILURE_INTERVAL);
+        mContext = mCatalog.createContext(RuntimeEnvironment.application);
+        LiveWallpaperLoader.setInfoParserForTesting(mCatalog.getInfoParser());
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        LiveWallpaperLoader.setInfoParserForTesting(null);
+        LiveWallpaperLoader.setPoolSizeForTesting(0);
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void load_parsesConcurrently() {
+        load();
+
+        // The pool has at least two threads, and every parse takes long enough to overlap.
+        int peak = mCatalog.takePeakConcurrentParses();
+        assertTrue("At most " + peak + " wallpaper parsed at a time", peak >= 2);
+    }
+
+    @Test
+    public void load_singleThreadParsesOneAtATime() {
+        LiveWallpaperLoader.setPoolSizeForTesting(1);
+        load();
+
+        assertEquals(1, mCatalog.takePeakConcurrentParses());
+    }
+
+    /** Loads the catalog from scratch until it has finished. */
+    private void load() {
+        SyntheticCatalog.clearCache(mContext);
+        LoadRecorder recorder = new LoadRecorder();
+        LiveWallpaperLoader loader = new LiveWallpaperLoader(mContext, recorder);
+        loader.load(false);
+        UiThreadHelper.runUntil(recorder::isFinished);
+        loader.cancel();
+
+        // A wallpaper that fails to parse is dropped without holding up the others.
+        assertEquals(SIZE, recorder.sortedCount);
+        assertEquals(mCatalog.getFailureCount(), recorder.skippedCount);
+        assertEquals(SIZE - mCatalog.getFailureCount(), recorder.loadedCount);
+    }
+}
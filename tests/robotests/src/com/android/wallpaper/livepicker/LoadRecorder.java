@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import android.content.ComponentName;
+
+import java.util.List;
+
+/**
+ * Records when a {@link LiveWallpaperLoader} delivered its callbacks, in
+ * {@link System#nanoTime()}, and how many rows it loaded or skipped.
+ */
+class LoadRecorder implements LiveWallpaperLoader.Callback {
+    long sortedNanos;
+    long finishedNanos;
+    int sortedCount;
+    int loadedCount;
+    int skippedCount;
+
+    boolean isFinished() {
+        return finishedNanos != 0;
+    }
+
+    @Override
+    public void onSnapshotRestored(List<LiveWallpaperInfo> wallpapers) {
+    }
+
+    @Override
+    public void onWallpapersSorted(List<LiveWallpaperInfo> wallpapers,
+            List<ComponentName> priority) {
+        sortedNanos = System.nanoTime();
+        sortedCount = wallpapers.size();
+    }
+
+    @Override
+    public void onWallpaperLoaded(LiveWallpaperInfo wallpaper) {
+        loadedCount++;
+    }
+
+    @Override
+    public void onWallpaperSkipped(LiveWallpaperInfo wallpaper) {
+        skippedCount++;
+    }
+
+    @Override
+    public void onLoadFinished() {
+        finishedNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onWallpapersRelocalized(List<LiveWallpaperInfo> wallpapers) {
+    }
+
+    @Override
+    public void onPackageLoaded(String packageName, List<LiveWallpaperInfo> wallpapers) {
+    }
+
+    @Override
+    public void onSnapshotWritten() {
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.wallpaper.livepicker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.service.wallpaper.IWallpaperEngine;
+import android.view.MotionEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowChoreographer;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feeds {@link TouchForwarder} a synthetic drag, with moves at a touch screen's sampling rate
+ * and frames at 60Hz on a simulated clock, and reports the events forwarded and the bytes
+ * allocated per second of input. Allocations are those of the host JVM's main thread, including
+ * the stand-in engine's argument arrays, so they are only comparable between runs of this test.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TouchForwarderTest {
+    private static final int GESTURE_SECONDS = 2;
+    /** Time between moves, for a touch screen sampled at 250Hz. */
+    private static final int MOVE_INTERVAL_MS = 4;
+    private static final int FRAME_INTERVAL_MS = 16;
+
+    private static final int MAX_EVENTS = GESTURE_SECONDS * 1000 / MOVE_INTERVAL_MS + 2;
+
+    // What the engine was sent, recorded without allocating.
+    private final int[] mActions = new int[MAX_EVENTS];
+    private final long[] mEventTimes = new long[MAX_EVENTS];
+    private final float[] mXs = new float[MAX_EVENTS];
+    private int mForwardedCount;
+    private IWallpaperEngine mEngine;
+
+    @Before
+    public void setUp() {
+        ShadowChoreographer.setPostFrameCallbackDelay(FRAME_INTERVAL_MS);
+        ShadowLooper.pauseMainLooper();
+        // The engine's methods differ between platform versions; only the pointer matters.
+        mEngine = (IWallpaperEngine) Proxy.newProxyInstance(
+                IWallpaperEngine.class.getClassLoader(), new Class<?>[] {IWallpaperEngine.class},
+                (proxy, method, args) -> {
+                    if ("dispatchPointer".equals(method.getName())) {
+                        MotionEvent event = (MotionEvent) args[0];
+                        mActions[mForwardedCount] = event.getActionMasked();
+                        mEventTimes[mForwardedCount] = event.getEventTime();
+                        mXs[mForwardedCount] = event.getX();
+                        mForwardedCount++;
+                    }
+                    return null;
+                });
+    }
+
+    @After
+    public void tearDown() {
+        ShadowChoreographer.setPostFrameCallbackDelay(0);
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    @Test
+    public void forward_coalescesMovesToFrames() {
+        // Made up front, as the input system would, so that they do not count as allocations.
+        List<MotionEvent> gesture = createDrag();
+        TouchForwarder forwarder = new TouchForwarder();
+
+        long allocatedBefore = getAllocatedBytes();
+        for (MotionEvent event : gesture) {
+            forwarder.forward(event, mEngine);
+            ShadowLooper.idleMainLooper(MOVE_INTERVAL_MS);
+        }
+        ShadowLooper.idleMainLooper(FRAME_INTERVAL_MS);
+        long allocated = getAllocatedBytes() - allocatedBefore;
+
+        StringWriter dump = new StringWriter();
+        forwarder.dump("", new PrintWriter(dump, true));
+        System.out.println(String.format(Locale.US,
+                "TouchForwarderTest: %d events/s received, %d events/s forwarded,"
+                        + " %d bytes/s allocated; %s",
+                gesture.size() / GESTURE_SECONDS, mForwardedCount / GESTURE_SECONDS,
+                allocated / GESTURE_SECONDS, dump.toString().trim()));
+
+        // Down and up are forwarded as they are, and the moves at most once a frame.
+        assertEquals(MotionEvent.ACTION_DOWN, mActions[0]);
+        assertEquals(MotionEvent.ACTION_UP, mActions[mForwardedCount - 1]);
+        int frames = GESTURE_SECONDS * 1000 / FRAME_INTERVAL_MS;
+        assertTrue("forwarded " + mForwardedCount + " events in " + frames + " frames",
+                mForwardedCount <= frames + 3);
+        // The last move before the up is not lost.
+        MotionEvent lastMove = gesture.get(gesture.size() - 2);
+        assertEquals(MotionEvent.ACTION_MOVE, mActions[mForwardedCount - 2]);
+        assertEquals(lastMove.getEventTime(), mEventTimes[mForwardedCount - 2]);
+        assertEquals(lastMove.getX(), mXs[mForwardedCount - 2], 0f);
+    }
+
+    /** Returns a drag across the screen: a down, moves for the whole gesture, and an up. */
+    private static List<MotionEvent> createDrag() {
+        List<MotionEvent> events = new ArrayList<>();
+        long downTime = SystemClock.uptimeMillis();
+        int moves = GESTURE_SECONDS * 1000 / MOVE_INTERVAL_MS;
+        events.add(MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, 0, 500, 0));
+        for (int i = 1; i <= moves; i++) {
+            events.add(MotionEvent.obtain(downTime, downTime + i * MOVE_INTERVAL_MS,
+                    MotionEvent.ACTION_MOVE, i, 500, 0));
+        }
+        long upTime = downTime + (moves + 1) * MOVE_INTERVAL_MS;
+        events.add(MotionEvent.obtain(downTime, upTime, MotionEvent.ACTION_UP, moves, 500, 0));
+        return events;
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}